@@ -17,7 +17,6 @@
 package fi.harism.curl;
 
 import android.app.Activity;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -85,11 +84,8 @@ public class CurlActivity extends Activity {
 			return 5;
 		}
 
-		private Bitmap loadBitmap(int width, int height, int index) {
-			Bitmap b = Bitmap.createBitmap(width, height,
-					Bitmap.Config.ARGB_8888);
-			b.eraseColor(0xFFFFFFFF);
-			Canvas c = new Canvas(b);
+		private void drawPage(Canvas c, int width, int height, int index) {
+			c.drawColor(0xFFFFFFFF);
 			Drawable d = getResources().getDrawable(mBitmapIds[index]);
 
 			int margin = 7;
@@ -120,8 +116,6 @@ public class CurlActivity extends Activity {
 
 			d.setBounds(r);
 			d.draw(c);
-
-			return b;
 		}
 
 		@Override
@@ -130,33 +124,33 @@ public class CurlActivity extends Activity {
 			switch (index) {
 			// First case is image on front side, solid colored back.
 			case 0: {
-				Bitmap front = loadBitmap(width, height, 0);
-				page.setTexture(front, CurlPage.SIDE_FRONT);
+				drawPage(page.getCanvas(CurlPage.SIDE_FRONT), width, height,
+						0);
 				page.setColor(Color.rgb(180, 180, 180), CurlPage.SIDE_BACK);
 				break;
 			}
 			// Second case is image on back side, solid colored front.
 			case 1: {
-				Bitmap back = loadBitmap(width, height, 2);
-				page.setTexture(back, CurlPage.SIDE_BACK);
+				drawPage(page.getCanvas(CurlPage.SIDE_BACK), width, height,
+						2);
 				page.setColor(Color.rgb(127, 140, 180), CurlPage.SIDE_FRONT);
 				break;
 			}
 			// Third case is images on both sides.
 			case 2: {
-				Bitmap front = loadBitmap(width, height, 1);
-				Bitmap back = loadBitmap(width, height, 3);
-				page.setTexture(front, CurlPage.SIDE_FRONT);
-				page.setTexture(back, CurlPage.SIDE_BACK);
+				drawPage(page.getCanvas(CurlPage.SIDE_FRONT), width, height,
+						1);
+				drawPage(page.getCanvas(CurlPage.SIDE_BACK), width, height,
+						3);
 				break;
 			}
 			// Fourth case is images on both sides - plus they are blend against
 			// separate colors.
 			case 3: {
-				Bitmap front = loadBitmap(width, height, 2);
-				Bitmap back = loadBitmap(width, height, 1);
-				page.setTexture(front, CurlPage.SIDE_FRONT);
-				page.setTexture(back, CurlPage.SIDE_BACK);
+				drawPage(page.getCanvas(CurlPage.SIDE_FRONT), width, height,
+						2);
+				drawPage(page.getCanvas(CurlPage.SIDE_BACK), width, height,
+						1);
 				page.setColor(Color.argb(127, 170, 130, 255),
 						CurlPage.SIDE_FRONT);
 				page.setColor(Color.rgb(255, 190, 150), CurlPage.SIDE_BACK);
@@ -165,8 +159,8 @@ public class CurlActivity extends Activity {
 			// Fifth case is same image is assigned to front and back. In this
 			// scenario only one texture is used and shared for both sides.
 			case 4:
-				Bitmap front = loadBitmap(width, height, 0);
-				page.setTexture(front, CurlPage.SIDE_BOTH);
+				drawPage(page.getCanvas(CurlPage.SIDE_BOTH), width, height,
+						0);
 				page.setColor(Color.argb(127, 255, 255, 255),
 						CurlPage.SIDE_BACK);
 				break;
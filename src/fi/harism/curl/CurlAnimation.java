@@ -0,0 +1,129 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import android.view.animation.Interpolator;
+
+/**
+ * Animation timing driven by frame times. Animation starts from the first
+ * frame time it's given, which makes every animation begin from progress 0
+ * no matter how long it took for first frame to be rendered. Frame times are
+ * given as monotonic nanoseconds and animation counts rendered frames and
+ * frames dropped in between them.
+ *
+ * @author harism
+ */
+public class CurlAnimation {
+
+	// Default interpolator, smoothstep applied to remaining time.
+	public static final Interpolator SMOOTHSTEP = new Interpolator() {
+		@Override
+		public float getInterpolation(float input) {
+			float t = 1f - input;
+			return 1f - (t * t * t * (3 - 2 * t));
+		}
+	};
+
+	// Nominal frame interval, 60 frames per second.
+	private static final long FRAME_INTERVAL = 1000000000L / 60;
+
+	// Dropped frame count.
+	private int mDroppedFrames;
+	// Animation duration in nanoseconds.
+	private long mDuration;
+	// Frame count and time of previous frame.
+	private int mFrames;
+	private long mFrameTime;
+	private Interpolator mInterpolator = SMOOTHSTEP;
+	private boolean mRunning;
+	// Start time, valid once first frame has been given.
+	private long mStartTime;
+
+	/**
+	 * Returns number of frames dropped during latest animation. Frame is
+	 * considered dropped if time between two frames exceeds nominal frame
+	 * interval by at least half of it.
+	 */
+	public int getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
+	/**
+	 * Returns number of frames latest animation was rendered with.
+	 */
+	public int getFrames() {
+		return mFrames;
+	}
+
+	/**
+	 * Returns true if animation is running.
+	 */
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Sets interpolator used for easing animation progress.
+	 */
+	public void setInterpolator(Interpolator interpolator) {
+		mInterpolator = interpolator != null ? interpolator : SMOOTHSTEP;
+	}
+
+	/**
+	 * Starts new animation with given duration in nanoseconds.
+	 */
+	public void start(long durationNanos) {
+		mDuration = durationNanos;
+		mDroppedFrames = 0;
+		mFrames = 0;
+		mRunning = true;
+	}
+
+	/**
+	 * Stops animation.
+	 */
+	public void stop() {
+		mRunning = false;
+	}
+
+	/**
+	 * Advances animation to given frame time and returns interpolated
+	 * progress. Once duration has elapsed, 1 is returned and animation is
+	 * stopped.
+	 */
+	public float update(long frameTimeNanos) {
+		if (mFrames == 0) {
+			mStartTime = frameTimeNanos;
+		} else {
+			long interval = frameTimeNanos - mFrameTime;
+			if (interval >= FRAME_INTERVAL + FRAME_INTERVAL / 2) {
+				mDroppedFrames += (interval + FRAME_INTERVAL / 2)
+						/ FRAME_INTERVAL - 1;
+			}
+		}
+		mFrameTime = frameTimeNanos;
+		++mFrames;
+
+		long elapsed = frameTimeNanos - mStartTime;
+		if (elapsed >= mDuration) {
+			mRunning = false;
+			return 1f;
+		}
+		return mInterpolator.getInterpolation((float) elapsed / mDuration);
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * Pool of Bitmaps shared by pages and page providers. Released Bitmaps are
+ * kept in buckets by their size and format and handed out again instead of
+ * allocating new ones. Once pool size is exceeded, Bitmaps from least recently
+ * used bucket are recycled. Bitmaps shared between pages are pooled only once
+ * every page sharing them has let go. Pool is thread safe, pages are filled on
+ * worker threads and uploaded on rendering thread. Default pool is cleared
+ * by CurlView once it's paused or detached from window.
+ *
+ * @author harism
+ */
+public class CurlBitmapPool {
+
+	// Default maximum size of pooled Bitmaps in bytes.
+	private static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+	// Pool shared by every page.
+	private static final CurlBitmapPool DEFAULT = new CurlBitmapPool(
+			DEFAULT_MAX_BYTES);
+
+	// Bitmaps allocated and allocations avoided by reusing pooled ones.
+	private int mAllocations;
+	private int mAllocationsAvoided;
+	// Pooled Bitmaps by size and format, least recently used bucket first.
+	private final LinkedHashMap<Key, ArrayList<Bitmap>> mBuckets = new LinkedHashMap<Key, ArrayList<Bitmap>>(
+			16, .75f, true);
+	// Total size of pooled Bitmaps in bytes.
+	private int mBytes;
+	// Maximum size of pooled Bitmaps in bytes.
+	private int mMaxBytes;
+	// Share counts of Bitmaps shared between pages. Weak keys let go of
+	// Bitmaps whose pages are dropped without releasing them.
+	private final WeakHashMap<Bitmap, Shares> mShares = new WeakHashMap<Bitmap, Shares>();
+
+	/**
+	 * Returns pool shared by every page.
+	 */
+	public static CurlBitmapPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Creates pool with given maximum size in bytes.
+	 */
+	public CurlBitmapPool(int maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Recycles every pooled Bitmap.
+	 */
+	public synchronized void clear() {
+		for (ArrayList<Bitmap> bucket : mBuckets.values()) {
+			for (Bitmap bitmap : bucket) {
+				bitmap.recycle();
+			}
+		}
+		mBuckets.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Returns number of Bitmaps allocated by pool.
+	 */
+	public synchronized int getAllocations() {
+		return mAllocations;
+	}
+
+	/**
+	 * Returns number of Bitmap allocations avoided by reusing pooled ones.
+	 */
+	public synchronized int getAllocationsAvoided() {
+		return mAllocationsAvoided;
+	}
+
+	/**
+	 * Returns size of given Bitmap in bytes.
+	 */
+	private int getBytes(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Returns total size of pooled Bitmaps in bytes.
+	 */
+	public synchronized int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Returns mutable Bitmap of given size and format. Pooled Bitmap is
+	 * reused if there is one, it's cleared to transparent like newly
+	 * allocated one would be. Bitmap should be given back with release once
+	 * it's no longer needed.
+	 */
+	public Bitmap obtain(int width, int height, Bitmap.Config config) {
+		Bitmap bitmap = null;
+		synchronized (this) {
+			ArrayList<Bitmap> bucket = mBuckets.get(new Key(width, height,
+					config));
+			if (bucket != null && !bucket.isEmpty()) {
+				bitmap = bucket.remove(bucket.size() - 1);
+				mBytes -= getBytes(bitmap);
+				++mAllocationsAvoided;
+			} else {
+				++mAllocations;
+			}
+		}
+		if (bitmap == null) {
+			return Bitmap.createBitmap(width, height, config);
+		}
+		bitmap.eraseColor(Color.TRANSPARENT);
+		return bitmap;
+	}
+
+	/**
+	 * Gives Bitmap back to pool. Bitmap may be handed out again right away
+	 * and must not be used by caller afterwards. If it's shared between
+	 * pages, it's pooled only once every share has been released. Immutable
+	 * Bitmaps can't be reused and are recycled instead.
+	 */
+	public void release(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		if (!bitmap.isMutable()) {
+			bitmap.recycle();
+			return;
+		}
+		synchronized (this) {
+			Shares shares = mShares.get(bitmap);
+			if (shares != null) {
+				shares.mReleased = true;
+				return;
+			}
+			Key key = new Key(bitmap.getWidth(), bitmap.getHeight(),
+					bitmap.getConfig());
+			ArrayList<Bitmap> bucket = mBuckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Bitmap>();
+				mBuckets.put(key, bucket);
+			}
+			bucket.add(bitmap);
+			mBytes += getBytes(bitmap);
+			trim();
+		}
+	}
+
+	/**
+	 * Sets maximum size of pooled Bitmaps in bytes.
+	 */
+	public synchronized void setMaxBytes(int maxBytes) {
+		mMaxBytes = maxBytes;
+		trim();
+	}
+
+	/**
+	 * Marks Bitmap shared by one more page. Shared Bitmap is not pooled
+	 * before every share has been released with unshare.
+	 */
+	public synchronized void share(Bitmap bitmap) {
+		if (bitmap == null) {
+			return;
+		}
+		Shares shares = mShares.get(bitmap);
+		if (shares == null) {
+			shares = new Shares();
+			mShares.put(bitmap, shares);
+		}
+		++shares.mCount;
+	}
+
+	/**
+	 * Recycles Bitmaps from least recently used buckets until pool fits in
+	 * its size.
+	 */
+	private void trim() {
+		Iterator<ArrayList<Bitmap>> iter = mBuckets.values().iterator();
+		while (mBytes > mMaxBytes && iter.hasNext()) {
+			ArrayList<Bitmap> bucket = iter.next();
+			while (mBytes > mMaxBytes && !bucket.isEmpty()) {
+				Bitmap bitmap = bucket.remove(0);
+				mBytes -= getBytes(bitmap);
+				bitmap.recycle();
+			}
+			if (bucket.isEmpty()) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Releases one share of Bitmap. Once there are no shares left, Bitmap is
+	 * pooled if it has been released meanwhile.
+	 */
+	public void unshare(Bitmap bitmap) {
+		if (bitmap == null) {
+			return;
+		}
+		synchronized (this) {
+			Shares shares = mShares.get(bitmap);
+			if (shares == null || --shares.mCount > 0) {
+				return;
+			}
+			mShares.remove(bitmap);
+			if (!shares.mReleased) {
+				return;
+			}
+		}
+		release(bitmap);
+	}
+
+	/**
+	 * Hash map key for Bitmap size and format.
+	 */
+	private static class Key {
+		private final Bitmap.Config mConfig;
+		private final int mHeight;
+		private final int mWidth;
+
+		public Key(int width, int height, Bitmap.Config config) {
+			mWidth = width;
+			mHeight = height;
+			mConfig = config;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return mWidth == key.mWidth && mHeight == key.mHeight
+					&& mConfig == key.mConfig;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = mWidth * 31 + mHeight;
+			return mConfig == null ? hash : hash * 31 + mConfig.hashCode();
+		}
+	}
+
+	/**
+	 * Share count of Bitmap and whether it has been released.
+	 */
+	private static class Shares {
+		int mCount;
+		boolean mReleased;
+	}
+
+}
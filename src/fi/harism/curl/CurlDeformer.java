@@ -0,0 +1,174 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+/**
+ * Curl deformation parameters and Java implementation of the math CurlShader
+ * vertex shader does. Values stored here are the ones given to shader as
+ * uniforms, and deform does per vertex exactly what shader does. This makes it
+ * possible to verify GPU deformation against CurlMesh without GL.
+ *
+ * @author harism
+ */
+public class CurlDeformer {
+
+	// Indices for deform output values.
+	public static final int OUT_COLOR_FACTOR = 5;
+	public static final int OUT_FRONT = 6;
+	public static final int OUT_SIZE = 7;
+	public static final int OUT_TEX_X = 3;
+	public static final int OUT_TEX_Y = 4;
+	public static final int OUT_X = 0;
+	public static final int OUT_Y = 1;
+	public static final int OUT_Z = 2;
+
+	// Same value shader uses for pi.
+	public static final float PI = 3.14159265f;
+
+	// Curl direction, should be normalized.
+	private final float[] mCurlDir = { 1f, 0f };
+	// Position for curl 'center'.
+	private final float[] mCurlPos = { 0f, 0f };
+	// Flip texture flag, 1 or 0.
+	private float mFlipTexture;
+	// Radius of curl.
+	private float mRadius;
+	// Page rectangle as left, top, right, bottom.
+	private final float[] mRect = new float[4];
+
+	/**
+	 * Calculates deformed vertex for given grid coordinate. Grid coordinates
+	 * are within [0, 1] range, (0, 0) being left top corner of page. Output
+	 * array has to have room for OUT_SIZE values.
+	 */
+	public void deform(float s, float t, float[] out) {
+		// Position within page rectangle.
+		float posX = mRect[0] + (mRect[2] - mRect[0]) * s;
+		float posY = mRect[1] + (mRect[3] - mRect[1]) * t;
+
+		// Rotate position so that curl direction heads to right (1,0).
+		float dx = posX - mCurlPos[0];
+		float dy = posY - mCurlPos[1];
+		float x = dx * mCurlDir[0] + dy * mCurlDir[1];
+		float y = dy * mCurlDir[0] - dx * mCurlDir[1];
+		float z = 0f;
+		float colorFactor = 1f;
+		float front = 1f;
+
+		float curlLength = PI * mRadius;
+		if (x < 0f) {
+			if (x <= -curlLength) {
+				// 'Completely' rotated vertices.
+				x = -(curlLength + x);
+				z = 2f * mRadius;
+				front = 0f;
+			} else {
+				// Vertex lies within 'curl'.
+				float angle = x / mRadius;
+				float sin = (float) Math.sin(angle);
+				x = mRadius * sin;
+				z = mRadius * (1f - (float) Math.cos(angle));
+				colorFactor = .1f + .9f * (float) Math.sqrt(sin + 1f);
+				front = z >= mRadius ? 0f : 1f;
+			}
+		}
+
+		// Move vertex back to 'world' coordinates.
+		out[OUT_X] = mCurlPos[0] + x * mCurlDir[0] - y * mCurlDir[1];
+		out[OUT_Y] = mCurlPos[1] + x * mCurlDir[1] + y * mCurlDir[0];
+		out[OUT_Z] = z;
+		out[OUT_TEX_X] = mFlipTexture + (1f - 2f * mFlipTexture) * s;
+		out[OUT_TEX_Y] = t;
+		out[OUT_COLOR_FACTOR] = colorFactor;
+		// Front texture is used if vertex is front facing, or if it's back
+		// facing and texture is flipped.
+		out[OUT_FRONT] = Math.abs(front - mFlipTexture);
+	}
+
+	/**
+	 * Returns curl direction as x, y.
+	 */
+	public float[] getCurlDir() {
+		return mCurlDir;
+	}
+
+	/**
+	 * Returns curl position as x, y.
+	 */
+	public float[] getCurlPos() {
+		return mCurlPos;
+	}
+
+	/**
+	 * Returns 1 if texture is flipped, 0 otherwise.
+	 */
+	public float getFlipTexture() {
+		return mFlipTexture;
+	}
+
+	/**
+	 * Returns curl radius.
+	 */
+	public float getRadius() {
+		return mRadius;
+	}
+
+	/**
+	 * Returns page rectangle as left, top, right, bottom.
+	 */
+	public float[] getRect() {
+		return mRect;
+	}
+
+	/**
+	 * Sets curl parameters, see CurlMesh.curl.
+	 */
+	public void setCurl(float curlPosX, float curlPosY, float curlDirX,
+			float curlDirY, float radius) {
+		mCurlPos[0] = curlPosX;
+		mCurlPos[1] = curlPosY;
+		mCurlDir[0] = curlDirX;
+		mCurlDir[1] = curlDirY;
+		mRadius = radius;
+	}
+
+	/**
+	 * Sets flat, not curled, page. Curl line is placed at the left edge of page
+	 * so that every vertex remains untouched.
+	 */
+	public void setFlat() {
+		setCurl(mRect[0], mRect[1], 1f, 0f, 0f);
+	}
+
+	/**
+	 * Sets texture flipping, see CurlMesh.setFlipTexture.
+	 */
+	public void setFlipTexture(boolean flipTexture) {
+		mFlipTexture = flipTexture ? 1f : 0f;
+	}
+
+	/**
+	 * Sets page rectangle.
+	 */
+	public void setRect(float left, float top, float right, float bottom) {
+		mRect[0] = left;
+		mRect[1] = top;
+		mRect[2] = right;
+		mRect[3] = bottom;
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache for recorded page animation meshes. Animations are identified by an
+ * int array key and consist of a fixed number of keyframes, each keyframe
+ * holding mesh buffer contents CurlMesh can copy back into its buffers. Once
+ * total size of keyframes exceeds cache size, least recently used animations
+ * are dropped. Cache is not thread safe and is meant to be used from
+ * rendering thread only.
+ *
+ * @author harism
+ */
+public class CurlKeyframeCache {
+
+	// Cached animations in access order, least recently used first.
+	private final LinkedHashMap<Key, ByteBuffer[]> mAnimations = new LinkedHashMap<Key, ByteBuffer[]>(
+			16, .75f, true);
+	// Total size of cached keyframes in bytes.
+	private int mBytes;
+	// Keyframe lookup statistics.
+	private int mHits;
+	// Key used for lookups, rehashed only once animation key array changes.
+	private final Key mLookupKey = new Key();
+	private int mMisses;
+	// Maximum size of cached keyframes in bytes.
+	private int mMaxBytes;
+
+	/**
+	 * Creates cache with given maximum size in bytes.
+	 */
+	public CurlKeyframeCache(int maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Drops every cached animation.
+	 */
+	public void clear() {
+		mAnimations.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Returns total size of cached keyframes in bytes.
+	 */
+	public int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Returns number of keyframes found from cache.
+	 */
+	public int getHits() {
+		return mHits;
+	}
+
+	/**
+	 * Returns keyframe for given animation or null if it hasn't been recorded
+	 * yet. Returned buffer is positioned at its beginning.
+	 */
+	public ByteBuffer getKeyframe(int[] animation, int keyframe) {
+		ByteBuffer[] keyframes = mAnimations.get(mLookupKey.set(animation));
+		ByteBuffer data = null;
+		if (keyframes != null && keyframe >= 0 && keyframe < keyframes.length) {
+			data = keyframes[keyframe];
+		}
+		if (data == null) {
+			++mMisses;
+			return null;
+		}
+		++mHits;
+		data.position(0);
+		return data;
+	}
+
+	/**
+	 * Returns number of keyframes not found from cache.
+	 */
+	public int getMisses() {
+		return mMisses;
+	}
+
+	/**
+	 * Stores keyframe for given animation consisting of keyframeCount
+	 * keyframes. Least recently used animations are dropped if cache size is
+	 * exceeded, but never the one keyframe is added to. Animation key array
+	 * is stored as is and must not be changed afterwards.
+	 */
+	public void putKeyframe(int[] animation, int keyframe, int keyframeCount,
+			ByteBuffer data) {
+		if (keyframe < 0 || keyframe >= keyframeCount
+				|| data.capacity() > mMaxBytes) {
+			return;
+		}
+		ByteBuffer[] keyframes = mAnimations.get(mLookupKey.set(animation));
+		if (keyframes == null || keyframes.length != keyframeCount) {
+			if (keyframes != null) {
+				mBytes -= getBytes(keyframes);
+			}
+			keyframes = new ByteBuffer[keyframeCount];
+			mAnimations.put(new Key().set(animation), keyframes);
+		}
+		if (keyframes[keyframe] != null) {
+			mBytes -= keyframes[keyframe].capacity();
+		}
+		keyframes[keyframe] = data;
+		mBytes += data.capacity();
+		trim(keyframes);
+	}
+
+	/**
+	 * Sets maximum size of cached keyframes in bytes.
+	 */
+	public void setMaxBytes(int maxBytes) {
+		mMaxBytes = maxBytes;
+		trim(null);
+	}
+
+	/**
+	 * Drops least recently used animations until cache fits in its size.
+	 * Given animation is kept, unless it alone exceeds cache size.
+	 */
+	private void trim(ByteBuffer[] keep) {
+		Iterator<ByteBuffer[]> iter = mAnimations.values().iterator();
+		while (mBytes > mMaxBytes && iter.hasNext()) {
+			ByteBuffer[] keyframes = iter.next();
+			if (keyframes != keep) {
+				mBytes -= getBytes(keyframes);
+				iter.remove();
+			}
+		}
+		if (mBytes > mMaxBytes) {
+			clear();
+		}
+	}
+
+	/**
+	 * Returns size of given keyframes in bytes.
+	 */
+	private static int getBytes(ByteBuffer[] keyframes) {
+		int bytes = 0;
+		for (ByteBuffer data : keyframes) {
+			if (data != null) {
+				bytes += data.capacity();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Hash map key wrapping int array.
+	 */
+	private static class Key {
+		private int mHashCode;
+		private int[] mValues;
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(mValues, ((Key) o).mValues);
+		}
+
+		@Override
+		public int hashCode() {
+			return mHashCode;
+		}
+
+		/**
+		 * Sets wrapped array, hash code is calculated only if array differs
+		 * from previous one.
+		 */
+		public Key set(int[] values) {
+			if (values != mValues) {
+				mValues = values;
+				mHashCode = Arrays.hashCode(values);
+			}
+			return this;
+		}
+	}
+
+}
@@ -16,17 +16,19 @@
 
 package fi.harism.curl;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.PointF;
 import android.graphics.RectF;
-import android.opengl.GLUtils;
 
 /**
  * Class implementing actual curl/page rendering.
@@ -56,49 +58,147 @@ public class CurlMesh {
 	private static final float[] SHADOW_INNER_COLOR = { 0f, 0f, 0f, .5f };
 	private static final float[] SHADOW_OUTER_COLOR = { 0f, 0f, 0f, .0f };
 
+	// Vertex formats. Separate format stores every vertex attribute into its
+	// own float buffer. Interleaved format stores all attributes into one
+	// buffer, colors as unsigned bytes.
+	public static final int VERTEX_FORMAT_INTERLEAVED = 2;
+	public static final int VERTEX_FORMAT_SEPARATE = 1;
+
+	// Interleaved vertex strides and attribute offsets in bytes. Page vertex
+	// consists of position, texture coordinates and color. Shadow vertex of
+	// position and color.
+	private static final int OFFSET_COLOR = (3 + 2) * 4;
+	private static final int OFFSET_SHADOW_COLOR = 3 * 4;
+	private static final int OFFSET_TEX_COORD = 3 * 4;
+	private static final int STRIDE_SHADOW_VERTEX = 3 * 4 + 4;
+	private static final int STRIDE_VERTEX = (3 + 2) * 4 + 4;
+
+	// Indices for buffer object ids. With interleaved vertex format only
+	// vertex and shadow vertex buffer objects are used.
+	private static final int BUFFER_COLORS = 1;
+	private static final int BUFFER_COUNT = 5;
+	private static final int BUFFER_SHADOW_COLORS = 4;
+	private static final int BUFFER_SHADOW_VERTICES = 3;
+	private static final int BUFFER_TEX_COORDS = 2;
+	private static final int BUFFER_VERTICES = 0;
+
+	// Number of values in curl memoization key.
+	private static final int CURL_KEY_SIZE = 8;
+
+	// Rectangle vertices are stored at the beginning of vertex arrays. Index 0
+	// = top-left, index 1 = bottom-left, index 2 = top-right and index 3 =
+	// bottom-right. Rest of the vertices are used as temporary storage while
+	// calculating curl.
+	private static final int RECTANGLE_VERTEX_COUNT = 4;
+	private static final int TEMP_VERTEX_COUNT = 7 + 4;
+
+	// Curl profiles are shared between meshes. Few most recently used ones
+	// are kept in cache as split count rarely changes.
+	private static final int PROFILE_CACHE_SIZE = 4;
+	private static final Profile[] sProfileCache = new Profile[PROFILE_CACHE_SIZE];
+
 	// Let's avoid using 'new' as much as possible. Meaning we introduce arrays
-	// once here and reuse them on runtime. Doesn't really have very much effect
-	// but avoids some garbage collections from happening.
-	private Array<ShadowVertex> mArrDropShadowVertices;
-	private Array<Vertex> mArrIntersections;
-	private Array<Vertex> mArrOutputVertices;
-	private Array<Vertex> mArrRotatedVertices;
-	private Array<Double> mArrScanLines;
-	private Array<ShadowVertex> mArrSelfShadowVertices;
-	private Array<ShadowVertex> mArrTempShadowVertices;
-	private Array<Vertex> mArrTempVertices;
-
-	// Buffers for feeding rasterizer.
-	private FloatBuffer mBufColors;
-	private FloatBuffer mBufCurlPositionLines;
-	private FloatBuffer mBufShadowColors;
-	private FloatBuffer mBufShadowVertices;
-	private FloatBuffer mBufTexCoords;
-	private FloatBuffer mBufVertices;
+	// once here and reuse them on runtime. Vertices are referenced by their
+	// index and vertex attributes are stored in primitive arrays, which
+	// avoids copying vertex objects around and boxing of values.
+	private StripArray mArrDropShadowVertices;
+	private IntArray mArrIntersections;
+	private IntArray mArrOutputVertices;
+	private IntArray mArrRotatedVertices;
+	private StripArray mArrSelfShadowVertices;
+	private IntArray mArrTempVertices;
+	// Scan line x -coordinates and their count.
+	private float[] mScanLines;
+	private int mScanLinesCount;
+	// Shadow vertex and vertex storage.
+	private ShadowVertices mShadowVertices;
+	private Vertices mVertices;
+
+	// Output buffers. Curl and reset are applied on rendering thread right
+	// before drawing, so one set is enough.
+	private final MeshBuffers mBuffers = new MeshBuffers();
+
+	// Buffer object ids and flag for telling drawn buffers have changed since
+	// last upload.
+	private int[] mBufferIds = null;
+	private boolean mBufferDataChanged = true;
+	// Flag for using buffer objects and whether they are supported by current
+	// GL context.
+	private boolean mBufferObjects = true;
+	private boolean mBufferObjectsSupported = false;
+	// Flag for telling GL capabilities have been checked.
+	private boolean mCapabilitiesChecked = false;
+
+	// Latest curl parameters, curl flag and flag for telling vertices have
+	// not been calculated for them yet.
+	private final PointF mCurlDir = new PointF();
+	private boolean mCurled = false;
+	private boolean mCurlPending = false;
+	private final PointF mCurlPos = new PointF();
+	private float mCurlRadius;
+	// Page rect, used for shader deformation.
+	private final RectF mRect = new RectF();
+
+	// Quantized key for latest curl and temporary key for comparing against
+	// it. Curls with equal keys produce the same mesh and are skipped.
+	private final int[] mCurlKey = new int[CURL_KEY_SIZE];
+	private final int[] mCurlKeyTemp = new int[CURL_KEY_SIZE];
+	private boolean mCurlKeyValid = false;
+	// Keyframe cache key for latest animation and the animation key it was
+	// built from. Built once per animation, null once mesh state affecting
+	// curl result changes.
+	private int[] mKeyframeAnimation;
+	private int[] mKeyframeKey;
+	// Curl memoization hit and miss counters, read from UI thread.
+	private volatile int mCurlHits;
+	private volatile int mCurlMisses;
+	// Curl position quantization step in pixels.
+	private float mCurlQuantum = 1f;
+	// Larger dimension of page rect, used for quantizing curl direction.
+	private float mRectSize;
 
 	private int mCurlPositionLinesCount;
-	private int mDropShadowCount;
+
+	// Adaptive curl split count flag, wanted length of one split in pixels
+	// and split count used for latest curl, latter read from UI thread.
+	private boolean mAdaptiveCurlSplits = false;
+	private float mCurlSplitLength = 8f;
+	private volatile int mCurlSplits;
 
 	// Boolean for 'flipping' texture sideways.
 	private boolean mFlipTexture = false;
 	// Maximum number of split lines used for creating a curl.
 	private int mMaxCurlSplits;
-
-	// Bounding rectangle for this mesh. mRectagle[0] = top-left corner,
-	// mRectangle[1] = bottom-left, mRectangle[2] = top-right and mRectangle[3]
-	// bottom-right.
-	private final Vertex[] mRectangle = new Vertex[4];
-	private int mSelfShadowCount;
+	// Pixels per view coordinate unit. Used for calculating on-screen size of
+	// curl.
+	private float mPixelScale = 0f;
+	// Curl profile used for latest curl.
+	private Profile mProfile;
+	// Number of bytes uploaded during latest onDrawFrame.
+	private int mUploadedBytes;
+
+	// Flag for leaving curl deformation to CurlShader. If set, vertices are
+	// calculated only if mesh is drawn using fixed function pipeline.
+	private boolean mShaderCurl = false;
+	// Flag for single pass page rendering and whether it's supported by
+	// current GL context.
+	private boolean mSinglePassRendering = true;
+	private boolean mSinglePassSupported = false;
 
 	private boolean mTextureBack = false;
-	// Texture ids and other variables.
-	private int[] mTextureIds = null;
+	// Front and back textures, taken from texture pool once page is set, and
+	// other variables.
+	private final CurlTexturePool.Texture[] mTextures = new CurlTexturePool.Texture[2];
+	private CurlTexturePool mTexturePool;
 	private final CurlPage mTexturePage = new CurlPage();
 	private final RectF mTextureRectBack = new RectF();
 	private final RectF mTextureRectFront = new RectF();
 
-	private int mVerticesCountBack;
-	private int mVerticesCountFront;
+	// Page and shadow vertex counts of latest mesh, read from UI thread.
+	private volatile int mShadowVertexCount;
+	private volatile int mVertexCount;
+	// Vertex format, either separate or interleaved.
+	private int mVertexFormat = VERTEX_FORMAT_SEPARATE;
 
 	/**
 	 * Constructor for mesh object.
@@ -111,101 +211,109 @@ public class CurlMesh {
 	public CurlMesh(int maxCurlSplits) {
 		// There really is no use for 0 splits.
 		mMaxCurlSplits = maxCurlSplits < 1 ? 1 : maxCurlSplits;
-
-		mArrScanLines = new Array<Double>(maxCurlSplits + 2);
-		mArrOutputVertices = new Array<Vertex>(7);
-		mArrRotatedVertices = new Array<Vertex>(4);
-		mArrIntersections = new Array<Vertex>(2);
-		mArrTempVertices = new Array<Vertex>(7 + 4);
-		for (int i = 0; i < 7 + 4; ++i) {
-			mArrTempVertices.add(new Vertex());
+		mCurlSplits = mMaxCurlSplits;
+
+		mScanLines = new float[mMaxCurlSplits + 2];
+		mArrOutputVertices = new IntArray(7);
+		mArrRotatedVertices = new IntArray(4);
+		mArrIntersections = new IntArray(2);
+		mArrTempVertices = new IntArray(TEMP_VERTEX_COUNT);
+		mVertices = new Vertices(RECTANGLE_VERTEX_COUNT + TEMP_VERTEX_COUNT);
+		for (int i = 0; i < TEMP_VERTEX_COUNT; ++i) {
+			mArrTempVertices.add(RECTANGLE_VERTEX_COUNT + i);
 		}
 
 		if (DRAW_SHADOW) {
-			mArrSelfShadowVertices = new Array<ShadowVertex>(
-					(mMaxCurlSplits + 2) * 2);
-			mArrDropShadowVertices = new Array<ShadowVertex>(
-					(mMaxCurlSplits + 2) * 2);
-			mArrTempShadowVertices = new Array<ShadowVertex>(
-					(mMaxCurlSplits + 2) * 2);
-			for (int i = 0; i < (mMaxCurlSplits + 2) * 2; ++i) {
-				mArrTempShadowVertices.add(new ShadowVertex());
-			}
+			mArrSelfShadowVertices = new StripArray((mMaxCurlSplits + 2) * 2);
+			mArrDropShadowVertices = new StripArray((mMaxCurlSplits + 2) * 2);
+			mShadowVertices = new ShadowVertices((mMaxCurlSplits + 2) * 2 * 2);
 		}
 
-		// Rectangle consists of 4 vertices. Index 0 = top-left, index 1 =
-		// bottom-left, index 2 = top-right and index 3 = bottom-right.
-		for (int i = 0; i < 4; ++i) {
-			mRectangle[i] = new Vertex();
-		}
 		// Set up shadow penumbra direction to each vertex. We do fake 'self
 		// shadow' calculations based on this information.
-		mRectangle[0].mPenumbraX = mRectangle[1].mPenumbraX = mRectangle[1].mPenumbraY = mRectangle[3].mPenumbraY = -1;
-		mRectangle[0].mPenumbraY = mRectangle[2].mPenumbraX = mRectangle[2].mPenumbraY = mRectangle[3].mPenumbraX = 1;
+		mVertices.mPenumbraX[0] = mVertices.mPenumbraX[1] = mVertices.mPenumbraY[1] = mVertices.mPenumbraY[3] = -1;
+		mVertices.mPenumbraY[0] = mVertices.mPenumbraX[2] = mVertices.mPenumbraY[2] = mVertices.mPenumbraX[3] = 1;
 
 		if (DRAW_CURL_POSITION) {
 			mCurlPositionLinesCount = 3;
-			ByteBuffer hvbb = ByteBuffer
-					.allocateDirect(mCurlPositionLinesCount * 2 * 2 * 4);
-			hvbb.order(ByteOrder.nativeOrder());
-			mBufCurlPositionLines = hvbb.asFloatBuffer();
-			mBufCurlPositionLines.position(0);
 		}
 
-		// There are 4 vertices from bounding rect, max 2 from adding split line
-		// to two corners and curl consists of max mMaxCurlSplits lines each
-		// outputting 2 vertices.
-		int maxVerticesCount = 4 + 2 + (2 * mMaxCurlSplits);
-		ByteBuffer vbb = ByteBuffer.allocateDirect(maxVerticesCount * 3 * 4);
-		vbb.order(ByteOrder.nativeOrder());
-		mBufVertices = vbb.asFloatBuffer();
-		mBufVertices.position(0);
+		mBuffers.allocate(mVertexFormat, mMaxCurlSplits,
+				mCurlPositionLinesCount);
+		reset();
+	}
 
-		if (DRAW_TEXTURE) {
-			ByteBuffer tbb = ByteBuffer
-					.allocateDirect(maxVerticesCount * 2 * 4);
-			tbb.order(ByteOrder.nativeOrder());
-			mBufTexCoords = tbb.asFloatBuffer();
-			mBufTexCoords.position(0);
+	/**
+	 * Adds shadow vertex to shadow buffers.
+	 */
+	private void addShadowVertex(MeshBuffers out, int index) {
+		ShadowVertices sv = mShadowVertices;
+		float posX = sv.mPosX[index];
+		float posY = sv.mPosY[index];
+		float posZ = sv.mPosZ[index];
+		float penumbraX = posX + sv.mPenumbraX[index];
+		float penumbraY = posY + sv.mPenumbraY[index];
+		float penumbraColor = sv.mPenumbraColor[index];
+		if (out.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+			ByteBuffer buf = out.mBufInterleavedShadowVertices;
+			buf.putFloat(posX).putFloat(posY).putFloat(posZ);
+			for (int j = 0; j < 4; ++j) {
+				float color = SHADOW_OUTER_COLOR[j]
+						+ (SHADOW_INNER_COLOR[j] - SHADOW_OUTER_COLOR[j])
+						* penumbraColor;
+				buf.put((byte) (color * 255 + .5f));
+			}
+			buf.putFloat(penumbraX).putFloat(penumbraY).putFloat(posZ);
+			for (int j = 0; j < 4; ++j) {
+				buf.put((byte) (SHADOW_OUTER_COLOR[j] * 255 + .5f));
+			}
+			return;
 		}
-
-		ByteBuffer cbb = ByteBuffer.allocateDirect(maxVerticesCount * 4 * 4);
-		cbb.order(ByteOrder.nativeOrder());
-		mBufColors = cbb.asFloatBuffer();
-		mBufColors.position(0);
-
-		if (DRAW_SHADOW) {
-			int maxShadowVerticesCount = (mMaxCurlSplits + 2) * 2 * 2;
-			ByteBuffer scbb = ByteBuffer
-					.allocateDirect(maxShadowVerticesCount * 4 * 4);
-			scbb.order(ByteOrder.nativeOrder());
-			mBufShadowColors = scbb.asFloatBuffer();
-			mBufShadowColors.position(0);
-
-			ByteBuffer sibb = ByteBuffer
-					.allocateDirect(maxShadowVerticesCount * 3 * 4);
-			sibb.order(ByteOrder.nativeOrder());
-			mBufShadowVertices = sibb.asFloatBuffer();
-			mBufShadowVertices.position(0);
-
-			mDropShadowCount = mSelfShadowCount = 0;
+		out.mBufShadowVertices.put(posX);
+		out.mBufShadowVertices.put(posY);
+		out.mBufShadowVertices.put(posZ);
+		out.mBufShadowVertices.put(penumbraX);
+		out.mBufShadowVertices.put(penumbraY);
+		out.mBufShadowVertices.put(posZ);
+		for (int j = 0; j < 4; ++j) {
+			float color = SHADOW_OUTER_COLOR[j]
+					+ (SHADOW_INNER_COLOR[j] - SHADOW_OUTER_COLOR[j])
+					* penumbraColor;
+			out.mBufShadowColors.put(color);
 		}
+		out.mBufShadowColors.put(SHADOW_OUTER_COLOR);
 	}
 
 	/**
 	 * Adds vertex to buffers.
 	 */
-	private void addVertex(Vertex vertex) {
-		mBufVertices.put((float) vertex.mPosX);
-		mBufVertices.put((float) vertex.mPosY);
-		mBufVertices.put((float) vertex.mPosZ);
-		mBufColors.put(vertex.mColorFactor * Color.red(vertex.mColor) / 255f);
-		mBufColors.put(vertex.mColorFactor * Color.green(vertex.mColor) / 255f);
-		mBufColors.put(vertex.mColorFactor * Color.blue(vertex.mColor) / 255f);
-		mBufColors.put(Color.alpha(vertex.mColor) / 255f);
+	private void addVertex(MeshBuffers out, int index) {
+		Vertices v = mVertices;
+		int color = v.mColor[index];
+		float colorFactor = v.mColorFactor[index];
+		if (out.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+			ByteBuffer buf = out.mBufInterleavedVertices;
+			buf.putFloat(v.mPosX[index]);
+			buf.putFloat(v.mPosY[index]);
+			buf.putFloat(v.mPosZ[index]);
+			buf.putFloat(v.mTexX[index]);
+			buf.putFloat(v.mTexY[index]);
+			buf.put((byte) (colorFactor * Color.red(color) + .5f));
+			buf.put((byte) (colorFactor * Color.green(color) + .5f));
+			buf.put((byte) (colorFactor * Color.blue(color) + .5f));
+			buf.put((byte) Color.alpha(color));
+			return;
+		}
+		out.mBufVertices.put(v.mPosX[index]);
+		out.mBufVertices.put(v.mPosY[index]);
+		out.mBufVertices.put(v.mPosZ[index]);
+		out.mBufColors.put(colorFactor * Color.red(color) / 255f);
+		out.mBufColors.put(colorFactor * Color.green(color) / 255f);
+		out.mBufColors.put(colorFactor * Color.blue(color) / 255f);
+		out.mBufColors.put(Color.alpha(color) / 255f);
 		if (DRAW_TEXTURE) {
-			mBufTexCoords.put((float) vertex.mTexX);
-			mBufTexCoords.put((float) vertex.mTexY);
+			out.mBufTexCoords.put(v.mTexX[index]);
+			out.mBufTexCoords.put(v.mTexY[index]);
 		}
 	}
 
@@ -220,10 +328,78 @@ public class CurlMesh {
 	 * @param radius
 	 *            Radius of curl.
 	 */
-	public synchronized void curl(PointF curlPos, PointF curlDir, double radius) {
+	public void curl(PointF curlPos, PointF curlDir, double radius) {
+		// Skip curl if it would produce the same mesh as previous one.
+		getCurlKey(curlPos, curlDir, radius, mCurlKeyTemp);
+		if (mCurlKeyValid && Arrays.equals(mCurlKey, mCurlKeyTemp)) {
+			mCurlHits++;
+			return;
+		}
+		System.arraycopy(mCurlKeyTemp, 0, mCurlKey, 0, CURL_KEY_SIZE);
+		mCurlKeyValid = true;
+		mCurlMisses++;
+
+		mCurlPos.set(curlPos.x, curlPos.y);
+		mCurlDir.set(curlDir.x, curlDir.y);
+		mCurlRadius = (float) radius;
+		mCurled = true;
+		// Shader does deformation on its own, vertices are calculated later
+		// on only if they are needed.
+		if (mShaderCurl) {
+			// Vertices of previous curl are not valid for this one.
+			MeshBuffers out = getWriteBuffers();
+			out.mVerticesCountFront = out.mVerticesCountBack = 0;
+			out.mDropShadowCount = out.mSelfShadowCount = 0;
+			mCurlPending = true;
+			finishBuffers(true);
+			return;
+		}
+		curlVertices(curlPos, curlDir, radius);
+	}
+
+	/**
+	 * Sets curl for this mesh as keyframe of an animation. If keyframe is
+	 * found from cache, its mesh is copied into buffers instead of being
+	 * calculated. Otherwise curl is calculated as usual and resulting mesh is
+	 * stored into cache. Animation key should identify curl parameters for
+	 * every keyframe of animation, mesh adds its own state to it.
+	 */
+	public void curl(PointF curlPos, PointF curlDir, double radius,
+			CurlKeyframeCache cache, int[] animation, int keyframe,
+			int keyframeCount) {
+		if (mShaderCurl || cache == null) {
+			curl(curlPos, curlDir, radius);
+			return;
+		}
+
+		int[] key = getKeyframeKey(animation);
+		ByteBuffer data = cache.getKeyframe(key, keyframe);
+		if (data != null && data.getInt(0) == mVertexFormat) {
+			MeshBuffers out = getWriteBuffers();
+			out.load(data);
+			mCurlPos.set(curlPos.x, curlPos.y);
+			mCurlDir.set(curlDir.x, curlDir.y);
+			mCurlRadius = (float) radius;
+			mCurled = true;
+			mCurlKeyValid = false;
+			finishBuffers(true);
+			return;
+		}
+
+		curl(curlPos, curlDir, radius);
+		cache.putKeyframe(key, keyframe, keyframeCount, mBuffers.save());
+	}
+
+	/**
+	 * Calculates curled vertices, see curl.
+	 */
+	private void curlVertices(PointF curlPos, PointF curlDir, double radius) {
+		// Output buffers this curl is written into.
+		MeshBuffers out = getWriteBuffers();
 
 		// First add some 'helper' lines used for development.
 		if (DRAW_CURL_POSITION) {
+			FloatBuffer mBufCurlPositionLines = out.mBufCurlPositionLines;
 			mBufCurlPositionLines.position(0);
 
 			mBufCurlPositionLines.put(curlPos.x);
@@ -244,15 +420,14 @@ public class CurlMesh {
 		}
 
 		// Actual 'curl' implementation starts here.
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
-		}
+		Vertices vert = mVertices;
 
-		// Calculate curl angle from direction.
+		// Calculate curl angle from direction. Rotation is calculated only
+		// once and shared with all vertices.
 		double curlAngle = Math.acos(curlDir.x);
 		curlAngle = curlDir.y > 0 ? -curlAngle : curlAngle;
+		float curlCos = (float) Math.cos(curlAngle);
+		float curlSin = (float) Math.sin(curlAngle);
 
 		// Initiate rotated rectangle which's is translated to curlPos and
 		// rotated so that curl direction heads to right (1,0). Vertices are
@@ -262,17 +437,18 @@ public class CurlMesh {
 		mArrTempVertices.addAll(mArrRotatedVertices);
 		mArrRotatedVertices.clear();
 		for (int i = 0; i < 4; ++i) {
-			Vertex v = mArrTempVertices.remove(0);
-			v.set(mRectangle[i]);
-			v.translate(-curlPos.x, -curlPos.y);
-			v.rotateZ(-curlAngle);
+			int v = mArrTempVertices.removeFirst();
+			vert.set(v, i);
+			vert.translate(v, -curlPos.x, -curlPos.y);
+			vert.rotateZ(v, curlCos, -curlSin);
 			int j = 0;
 			for (; j < mArrRotatedVertices.size(); ++j) {
-				Vertex v2 = mArrRotatedVertices.get(j);
-				if (v.mPosX > v2.mPosX) {
+				int v2 = mArrRotatedVertices.get(j);
+				if (vert.mPosX[v] > vert.mPosX[v2]) {
 					break;
 				}
-				if (v.mPosX == v2.mPosX && v.mPosY > v2.mPosY) {
+				if (vert.mPosX[v] == vert.mPosX[v2]
+						&& vert.mPosY[v] > vert.mPosY[v2]) {
 					break;
 				}
 			}
@@ -290,79 +466,86 @@ public class CurlMesh {
 		// see if there is an intersection.
 		int lines[][] = { { 0, 1 }, { 0, 2 }, { 1, 3 }, { 2, 3 } };
 		{
-			// TODO: There really has to be more 'easier' way of doing this -
-			// not including extensive use of sqrt.
-			Vertex v0 = mArrRotatedVertices.get(0);
-			Vertex v2 = mArrRotatedVertices.get(2);
-			Vertex v3 = mArrRotatedVertices.get(3);
-			double dist2 = Math.sqrt((v0.mPosX - v2.mPosX)
-					* (v0.mPosX - v2.mPosX) + (v0.mPosY - v2.mPosY)
-					* (v0.mPosY - v2.mPosY));
-			double dist3 = Math.sqrt((v0.mPosX - v3.mPosX)
-					* (v0.mPosX - v3.mPosX) + (v0.mPosY - v3.mPosY)
-					* (v0.mPosY - v3.mPosY));
-			if (dist2 > dist3) {
+			// Comparing squared distances is enough here, there's no need for
+			// taking square roots.
+			int v0 = mArrRotatedVertices.get(0);
+			int v2 = mArrRotatedVertices.get(2);
+			int v3 = mArrRotatedVertices.get(3);
+			float dx2 = vert.mPosX[v0] - vert.mPosX[v2];
+			float dy2 = vert.mPosY[v0] - vert.mPosY[v2];
+			float dx3 = vert.mPosX[v0] - vert.mPosX[v3];
+			float dy3 = vert.mPosY[v0] - vert.mPosY[v3];
+			if (dx2 * dx2 + dy2 * dy2 > dx3 * dx3 + dy3 * dy3) {
 				lines[1][1] = 3;
 				lines[2][1] = 2;
 			}
 		}
 
-		mVerticesCountFront = mVerticesCountBack = 0;
+		out.mVerticesCountFront = out.mVerticesCountBack = 0;
 
 		if (DRAW_SHADOW) {
-			mArrTempShadowVertices.addAll(mArrDropShadowVertices);
-			mArrTempShadowVertices.addAll(mArrSelfShadowVertices);
 			mArrDropShadowVertices.clear();
 			mArrSelfShadowVertices.clear();
+			mShadowVertices.mCount = 0;
 		}
 
 		// Length of 'curl' curve.
 		double curlLength = Math.PI * radius;
-		// Calculate scan lines.
-		// TODO: Revisit this code one day. There is room for optimization here.
-		mArrScanLines.clear();
-		if (mMaxCurlSplits > 0) {
-			mArrScanLines.add((double) 0);
+		// Choose split count. In adaptive mode it's calculated from curl arc
+		// length in pixels, leaving at least two splits for a visible curl.
+		mCurlSplits = mMaxCurlSplits;
+		if (mAdaptiveCurlSplits && mPixelScale > 0) {
+			int splits = (int) Math.ceil(curlLength * mPixelScale
+					/ mCurlSplitLength) + 1;
+			mCurlSplits = Math.max(Math.min(splits, mMaxCurlSplits),
+					Math.min(2, mMaxCurlSplits));
 		}
-		for (int i = 1; i < mMaxCurlSplits; ++i) {
-			mArrScanLines.add((-curlLength * i) / (mMaxCurlSplits - 1));
+		// Calculate scan lines. Profile is calculated for unit radius so scan
+		// lines are simply scaled by actual radius.
+		if (mProfile == null || mProfile.mSplits != mCurlSplits) {
+			mProfile = getProfile(mCurlSplits);
+		}
+		Profile profile = mProfile;
+		mScanLinesCount = 0;
+		for (int i = 0; i < mCurlSplits; ++i) {
+			mScanLines[mScanLinesCount++] = (float) (radius * profile.mScanLine[i]);
 		}
 		// As mRotatedVertices is ordered regarding x -coordinate, adding
 		// this scan line produces scan area picking up vertices which are
 		// rotated completely. One could say 'until infinity'.
-		mArrScanLines.add(mArrRotatedVertices.get(3).mPosX - 1);
+		mScanLines[mScanLinesCount++] = vert.mPosX[mArrRotatedVertices.get(3)] - 1;
 
 		// Start from right most vertex. Pretty much the same as first scan area
 		// is starting from 'infinity'.
-		double scanXmax = mArrRotatedVertices.get(0).mPosX + 1;
+		float scanXmax = vert.mPosX[mArrRotatedVertices.get(0)] + 1;
 
-		for (int i = 0; i < mArrScanLines.size(); ++i) {
+		for (int i = 0; i < mScanLinesCount; ++i) {
 			// Once we have scanXmin and scanXmax we have a scan area to start
 			// working with.
-			double scanXmin = mArrScanLines.get(i);
+			float scanXmin = mScanLines[i];
 			// First iterate 'original' rectangle vertices within scan area.
 			for (int j = 0; j < mArrRotatedVertices.size(); ++j) {
-				Vertex v = mArrRotatedVertices.get(j);
+				int v = mArrRotatedVertices.get(j);
 				// Test if vertex lies within this scan area.
 				// TODO: Frankly speaking, can't remember why equality check was
 				// added to both ends. Guessing it was somehow related to case
 				// where radius=0f, which, given current implementation, could
 				// be handled much more effectively anyway.
-				if (v.mPosX >= scanXmin && v.mPosX <= scanXmax) {
+				if (vert.mPosX[v] >= scanXmin && vert.mPosX[v] <= scanXmax) {
 					// Pop out a vertex from temp vertices.
-					Vertex n = mArrTempVertices.remove(0);
-					n.set(v);
+					int n = mArrTempVertices.removeFirst();
+					vert.set(n, v);
 					// This is done solely for triangulation reasons. Given a
 					// rotated rectangle it has max 2 vertices having
 					// intersection.
-					Array<Vertex> intersections = getIntersections(
-							mArrRotatedVertices, lines, n.mPosX);
+					IntArray intersections = getIntersections(
+							mArrRotatedVertices, lines, vert.mPosX[n]);
 					// In a sense one could say we're adding vertices always in
 					// two, positioned at the ends of intersecting line. And for
 					// triangulation to work properly they are added based on y
 					// -coordinate. And this if-else is doing it for us.
 					if (intersections.size() == 1
-							&& intersections.get(0).mPosY > v.mPosY) {
+							&& vert.mPosY[intersections.get(0)] > vert.mPosY[v]) {
 						// In case intersecting vertex is higher add it first.
 						mArrOutputVertices.addAll(intersections);
 						mArrOutputVertices.add(n);
@@ -381,7 +564,7 @@ public class CurlMesh {
 			}
 
 			// Search for scan line intersections.
-			Array<Vertex> intersections = getIntersections(mArrRotatedVertices,
+			IntArray intersections = getIntersections(mArrRotatedVertices,
 					lines, scanXmin);
 
 			// We expect to get 0 or 2 vertices. In rare cases there's only one
@@ -390,9 +573,9 @@ public class CurlMesh {
 			if (intersections.size() == 2) {
 				// There were two intersections, add them based on y
 				// -coordinate, higher first, lower last.
-				Vertex v1 = intersections.get(0);
-				Vertex v2 = intersections.get(1);
-				if (v1.mPosY < v2.mPosY) {
+				int v1 = intersections.get(0);
+				int v2 = intersections.get(1);
+				if (vert.mPosY[v1] < vert.mPosY[v2]) {
 					mArrOutputVertices.add(v2);
 					mArrOutputVertices.add(v1);
 				} else {
@@ -411,7 +594,7 @@ public class CurlMesh {
 
 			// Add vertices found during this iteration to vertex etc buffers.
 			while (mArrOutputVertices.size() > 0) {
-				Vertex v = mArrOutputVertices.remove(0);
+				int v = mArrOutputVertices.removeFirst();
 				mArrTempVertices.add(v);
 
 				// Local texture front-facing flag.
@@ -420,82 +603,86 @@ public class CurlMesh {
 				// Untouched vertices.
 				if (i == 0) {
 					textureFront = true;
-					mVerticesCountFront++;
+					out.mVerticesCountFront++;
 				}
 				// 'Completely' rotated vertices.
-				else if (i == mArrScanLines.size() - 1 || curlLength == 0) {
-					v.mPosX = -(curlLength + v.mPosX);
-					v.mPosZ = 2 * radius;
-					v.mPenumbraX = -v.mPenumbraX;
+				else if (i == mScanLinesCount - 1 || curlLength == 0) {
+					vert.mPosX[v] = (float) -(curlLength + vert.mPosX[v]);
+					vert.mPosZ[v] = (float) (2 * radius);
+					vert.mPenumbraX[v] = -vert.mPenumbraX[v];
 
 					textureFront = false;
-					mVerticesCountBack++;
+					out.mVerticesCountBack++;
 				}
 				// Vertex lies within 'curl'.
 				else {
 					// Even though it's not obvious from the if-else clause,
 					// here v.mPosX is between [-curlLength, 0]. And we can do
-					// calculations around a half cylinder.
-					double rotY = Math.PI * (v.mPosX / curlLength);
-					v.mPosX = radius * Math.sin(rotY);
-					v.mPosZ = radius - (radius * Math.cos(rotY));
-					v.mPenumbraX *= Math.cos(rotY);
-					// Map color multiplier to [.1f, 1f] range.
-					v.mColorFactor = (float) (.1f + .9f * Math.sqrt(Math
-							.sin(rotY) + 1));
-
-					if (v.mPosZ >= radius) {
+					// calculations around a half cylinder. Vertices lying on
+					// scan line use precalculated profile values.
+					// Versine, 1 - cos, is stored separately as it loses
+					// precision near zero if calculated from float cosine.
+					float sin, cos, versine, colorFactor;
+					if (vert.mPosX[v] == scanXmin) {
+						sin = profile.mSin[i];
+						cos = profile.mCos[i];
+						versine = profile.mVersine[i];
+						colorFactor = profile.mColorFactor[i];
+					} else {
+						double rotY = Math.PI * (vert.mPosX[v] / curlLength);
+						sin = (float) Math.sin(rotY);
+						cos = (float) Math.cos(rotY);
+						versine = (float) (1 - Math.cos(rotY));
+						colorFactor = getColorFactor(sin);
+					}
+					vert.mPosX[v] = (float) (radius * sin);
+					vert.mPosZ[v] = (float) (radius * versine);
+					vert.mPenumbraX[v] *= cos;
+					vert.mColorFactor[v] = colorFactor;
+
+					if (vert.mPosZ[v] >= radius) {
 						textureFront = false;
-						mVerticesCountBack++;
+						out.mVerticesCountBack++;
 					} else {
 						textureFront = true;
-						mVerticesCountFront++;
+						out.mVerticesCountFront++;
 					}
 				}
 
 				// We use local textureFront for flipping backside texture
 				// locally. Plus additionally if mesh is in flip texture mode,
-				// we'll make the procedure "backwards". Also, until this point,
-				// texture coordinates are within [0, 1] range so we'll adjust
-				// them to final texture coordinates too.
+				// we'll make the procedure "backwards". Texture coordinates
+				// are left within [0, 1] range, they are scaled to final
+				// texture coordinates using texture matrix while rendering.
 				if (textureFront != mFlipTexture) {
-					v.mTexX *= mTextureRectFront.right;
-					v.mTexY *= mTextureRectFront.bottom;
-					v.mColor = mTexturePage.getColor(CurlPage.SIDE_FRONT);
+					vert.mColor[v] = mTexturePage.getColor(CurlPage.SIDE_FRONT);
 				} else {
-					v.mTexX *= mTextureRectBack.right;
-					v.mTexY *= mTextureRectBack.bottom;
-					v.mColor = mTexturePage.getColor(CurlPage.SIDE_BACK);
+					vert.mColor[v] = mTexturePage.getColor(CurlPage.SIDE_BACK);
 				}
 
 				// Move vertex back to 'world' coordinates.
-				v.rotateZ(curlAngle);
-				v.translate(curlPos.x, curlPos.y);
-				addVertex(v);
+				vert.rotateZ(v, curlCos, curlSin);
+				vert.translate(v, curlPos.x, curlPos.y);
+				addVertex(out, v);
 
+				float posZ = vert.mPosZ[v];
 				// Drop shadow is cast 'behind' the curl.
-				if (DRAW_SHADOW && v.mPosZ > 0 && v.mPosZ <= radius) {
-					ShadowVertex sv = mArrTempShadowVertices.remove(0);
-					sv.mPosX = v.mPosX;
-					sv.mPosY = v.mPosY;
-					sv.mPosZ = v.mPosZ;
-					sv.mPenumbraX = (v.mPosZ / 2) * -curlDir.x;
-					sv.mPenumbraY = (v.mPosZ / 2) * -curlDir.y;
-					sv.mPenumbraColor = v.mPosZ / radius;
-					int idx = (mArrDropShadowVertices.size() + 1) / 2;
-					mArrDropShadowVertices.add(idx, sv);
+				if (DRAW_SHADOW && posZ > 0 && posZ <= radius) {
+					int sv = mShadowVertices.add(v);
+					mShadowVertices.mPenumbraX[sv] = (posZ / 2) * -curlDir.x;
+					mShadowVertices.mPenumbraY[sv] = (posZ / 2) * -curlDir.y;
+					mShadowVertices.mPenumbraColor[sv] = (float) (posZ / radius);
+					mArrDropShadowVertices.addMiddle(sv);
 				}
 				// Self shadow is cast partly over mesh.
-				if (DRAW_SHADOW && v.mPosZ > radius) {
-					ShadowVertex sv = mArrTempShadowVertices.remove(0);
-					sv.mPosX = v.mPosX;
-					sv.mPosY = v.mPosY;
-					sv.mPosZ = v.mPosZ;
-					sv.mPenumbraX = ((v.mPosZ - radius) / 3) * v.mPenumbraX;
-					sv.mPenumbraY = ((v.mPosZ - radius) / 3) * v.mPenumbraY;
-					sv.mPenumbraColor = (v.mPosZ - radius) / (2 * radius);
-					int idx = (mArrSelfShadowVertices.size() + 1) / 2;
-					mArrSelfShadowVertices.add(idx, sv);
+				if (DRAW_SHADOW && posZ > radius) {
+					int sv = mShadowVertices.add(v);
+					mShadowVertices.mPenumbraX[sv] = (float) ((posZ - radius) / 3)
+							* vert.mPenumbraX[v];
+					mShadowVertices.mPenumbraY[sv] = (float) ((posZ - radius) / 3)
+							* vert.mPenumbraY[v];
+					mShadowVertices.mPenumbraColor[sv] = (float) ((posZ - radius) / (2 * radius));
+					mArrSelfShadowVertices.addMiddle(sv);
 				}
 			}
 
@@ -503,86 +690,94 @@ public class CurlMesh {
 			scanXmax = scanXmin;
 		}
 
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
-		}
+		out.rewind();
 
 		// Add shadow Vertices.
 		if (DRAW_SHADOW) {
-			mBufShadowColors.position(0);
-			mBufShadowVertices.position(0);
-			mDropShadowCount = 0;
+			out.rewindShadow();
+			out.mDropShadowCount = 0;
 
 			for (int i = 0; i < mArrDropShadowVertices.size(); ++i) {
-				ShadowVertex sv = mArrDropShadowVertices.get(i);
-				mBufShadowVertices.put((float) sv.mPosX);
-				mBufShadowVertices.put((float) sv.mPosY);
-				mBufShadowVertices.put((float) sv.mPosZ);
-				mBufShadowVertices.put((float) (sv.mPosX + sv.mPenumbraX));
-				mBufShadowVertices.put((float) (sv.mPosY + sv.mPenumbraY));
-				mBufShadowVertices.put((float) sv.mPosZ);
-				for (int j = 0; j < 4; ++j) {
-					double color = SHADOW_OUTER_COLOR[j]
-							+ (SHADOW_INNER_COLOR[j] - SHADOW_OUTER_COLOR[j])
-							* sv.mPenumbraColor;
-					mBufShadowColors.put((float) color);
-				}
-				mBufShadowColors.put(SHADOW_OUTER_COLOR);
-				mDropShadowCount += 2;
+				addShadowVertex(out, mArrDropShadowVertices.get(i));
+				out.mDropShadowCount += 2;
 			}
-			mSelfShadowCount = 0;
+			out.mSelfShadowCount = 0;
 			for (int i = 0; i < mArrSelfShadowVertices.size(); ++i) {
-				ShadowVertex sv = mArrSelfShadowVertices.get(i);
-				mBufShadowVertices.put((float) sv.mPosX);
-				mBufShadowVertices.put((float) sv.mPosY);
-				mBufShadowVertices.put((float) sv.mPosZ);
-				mBufShadowVertices.put((float) (sv.mPosX + sv.mPenumbraX));
-				mBufShadowVertices.put((float) (sv.mPosY + sv.mPenumbraY));
-				mBufShadowVertices.put((float) sv.mPosZ);
-				for (int j = 0; j < 4; ++j) {
-					double color = SHADOW_OUTER_COLOR[j]
-							+ (SHADOW_INNER_COLOR[j] - SHADOW_OUTER_COLOR[j])
-							* sv.mPenumbraColor;
-					mBufShadowColors.put((float) color);
-				}
-				mBufShadowColors.put(SHADOW_OUTER_COLOR);
-				mSelfShadowCount += 2;
+				addShadowVertex(out, mArrSelfShadowVertices.get(i));
+				out.mSelfShadowCount += 2;
 			}
-			mBufShadowColors.position(0);
-			mBufShadowVertices.position(0);
+			out.rewindShadow();
 		}
+
+		finishBuffers(true);
+	}
+
+	/**
+	 * Returns true if given GL context is OpenGL ES 1.1 or later. Buffer
+	 * objects and texture combiners were introduced in 1.1.
+	 */
+	private static boolean isGL11(GL10 gl) {
+		if (!(gl instanceof GL11)) {
+			return false;
+		}
+		// Version string is of form "OpenGL ES-CM 1.1".
+		String version = gl.glGetString(GL10.GL_VERSION);
+		return version != null && version.indexOf(" 1.0") < 0;
+	}
+
+	/**
+	 * Returns true if given GL context supports texture combiners with at
+	 * least two texture units. These are needed for single pass rendering.
+	 */
+	private static boolean isSinglePassSupported(GL10 gl) {
+		if (!isGL11(gl)) {
+			return false;
+		}
+		int[] textureUnits = new int[1];
+		gl.glGetIntegerv(GL10.GL_MAX_TEXTURE_UNITS, textureUnits, 0);
+		return textureUnits[0] >= 2;
+	}
+
+	/**
+	 * Maps color multiplier to [.1f, 1f] range based on sine of rotation
+	 * angle.
+	 */
+	private static float getColorFactor(float sin) {
+		return (float) (.1f + .9f * Math.sqrt(sin + 1));
 	}
 
 	/**
 	 * Calculates intersections for given scan line.
 	 */
-	private Array<Vertex> getIntersections(Array<Vertex> vertices,
-			int[][] lineIndices, double scanX) {
+	private IntArray getIntersections(IntArray vertices, int[][] lineIndices,
+			float scanX) {
+		Vertices vert = mVertices;
 		mArrIntersections.clear();
 		// Iterate through rectangle lines each re-presented as a pair of
 		// vertices.
 		for (int j = 0; j < lineIndices.length; j++) {
-			Vertex v1 = vertices.get(lineIndices[j][0]);
-			Vertex v2 = vertices.get(lineIndices[j][1]);
+			int v1 = vertices.get(lineIndices[j][0]);
+			int v2 = vertices.get(lineIndices[j][1]);
 			// Here we expect that v1.mPosX >= v2.mPosX and wont do intersection
 			// test the opposite way.
-			if (v1.mPosX > scanX && v2.mPosX < scanX) {
+			if (vert.mPosX[v1] > scanX && vert.mPosX[v2] < scanX) {
 				// There is an intersection, calculate coefficient telling 'how
 				// far' scanX is from v2.
-				double c = (scanX - v2.mPosX) / (v1.mPosX - v2.mPosX);
-				Vertex n = mArrTempVertices.remove(0);
-				n.set(v2);
-				n.mPosX = scanX;
-				n.mPosY += (v1.mPosY - v2.mPosY) * c;
+				float c = (scanX - vert.mPosX[v2])
+						/ (vert.mPosX[v1] - vert.mPosX[v2]);
+				int n = mArrTempVertices.removeFirst();
+				vert.set(n, v2);
+				vert.mPosX[n] = scanX;
+				vert.mPosY[n] += (vert.mPosY[v1] - vert.mPosY[v2]) * c;
 				if (DRAW_TEXTURE) {
-					n.mTexX += (v1.mTexX - v2.mTexX) * c;
-					n.mTexY += (v1.mTexY - v2.mTexY) * c;
+					vert.mTexX[n] += (vert.mTexX[v1] - vert.mTexX[v2]) * c;
+					vert.mTexY[n] += (vert.mTexY[v1] - vert.mTexY[v2]) * c;
 				}
 				if (DRAW_SHADOW) {
-					n.mPenumbraX += (v1.mPenumbraX - v2.mPenumbraX) * c;
-					n.mPenumbraY += (v1.mPenumbraY - v2.mPenumbraY) * c;
+					vert.mPenumbraX[n] += (vert.mPenumbraX[v1] - vert.mPenumbraX[v2])
+							* c;
+					vert.mPenumbraY[n] += (vert.mPenumbraY[v1] - vert.mPenumbraY[v2])
+							* c;
 				}
 				mArrIntersections.add(n);
 			}
@@ -590,56 +785,308 @@ public class CurlMesh {
 		return mArrIntersections;
 	}
 
+	/**
+	 * Draws given range of page vertices as a triangle strip. Page is colored
+	 * using vertex colors and texture is blended on top of it using texture
+	 * alpha multiplied with color alpha. In single pass mode this is done
+	 * using texture combiners, otherwise color and texture are drawn in
+	 * separate passes.
+	 * 
+	 * @param frontTexture
+	 *            Use front facing texture if true, back facing otherwise.
+	 */
+	private void drawPage(GL10 gl, int first, int count, boolean frontTexture) {
+		if (!DRAW_TEXTURE) {
+			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, first, count);
+			return;
+		}
+
+		int textureId = getTextureId(frontTexture ? 0 : 1);
+		RectF textureRect = frontTexture ? mTextureRectFront : mTextureRectBack;
+
+		// Texture coordinates are within [0, 1] range, scale them to the area
+		// page bitmap covers in power of two sized texture.
+		gl.glMatrixMode(GL10.GL_TEXTURE);
+		gl.glLoadIdentity();
+		gl.glScalef(textureRect.right, textureRect.bottom, 1f);
+		gl.glMatrixMode(GL10.GL_MODELVIEW);
+
+		if (mSinglePassRendering && mSinglePassSupported) {
+			GL11 gl11 = (GL11) gl;
+			// First texture unit modulates texture with vertex color, alpha
+			// included. Result is the same as texture pass produces before
+			// blending.
+			gl.glEnable(GL10.GL_TEXTURE_2D);
+			gl.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
+			gl11.glTexEnvi(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
+					GL11.GL_COMBINE);
+			setTexEnvCombine(gl11, GL11.GL_COMBINE_RGB, GL10.GL_MODULATE,
+					GL11.GL_SRC0_RGB, GL10.GL_TEXTURE, GL11.GL_OPERAND0_RGB,
+					GL11.GL_SRC_COLOR, GL11.GL_SRC1_RGB,
+					GL11.GL_PRIMARY_COLOR, GL11.GL_OPERAND1_RGB,
+					GL11.GL_SRC_COLOR);
+			setTexEnvCombine(gl11, GL11.GL_COMBINE_ALPHA, GL10.GL_MODULATE,
+					GL11.GL_SRC0_ALPHA, GL10.GL_TEXTURE,
+					GL11.GL_OPERAND0_ALPHA, GL10.GL_SRC_ALPHA,
+					GL11.GL_SRC1_ALPHA, GL11.GL_PRIMARY_COLOR,
+					GL11.GL_OPERAND1_ALPHA, GL10.GL_SRC_ALPHA);
+
+			// Second texture unit interpolates between previous result and
+			// vertex color using previous alpha. Which is exactly what
+			// blending texture pass over color pass does. Texture is bound
+			// only to enable the unit, it's not sampled for the result.
+			gl.glActiveTexture(GL10.GL_TEXTURE1);
+			gl.glEnable(GL10.GL_TEXTURE_2D);
+			gl.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
+			gl11.glTexEnvi(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
+					GL11.GL_COMBINE);
+			setTexEnvCombine(gl11, GL11.GL_COMBINE_RGB, GL11.GL_INTERPOLATE,
+					GL11.GL_SRC0_RGB, GL11.GL_PREVIOUS, GL11.GL_OPERAND0_RGB,
+					GL11.GL_SRC_COLOR, GL11.GL_SRC1_RGB,
+					GL11.GL_PRIMARY_COLOR, GL11.GL_OPERAND1_RGB,
+					GL11.GL_SRC_COLOR);
+			gl11.glTexEnvi(GL10.GL_TEXTURE_ENV, GL11.GL_SRC2_RGB,
+					GL11.GL_PREVIOUS);
+			gl11.glTexEnvi(GL10.GL_TEXTURE_ENV, GL11.GL_OPERAND2_RGB,
+					GL10.GL_SRC_ALPHA);
+			setTexEnvCombine(gl11, GL11.GL_COMBINE_ALPHA, GL11.GL_INTERPOLATE,
+					GL11.GL_SRC0_ALPHA, GL11.GL_PREVIOUS,
+					GL11.GL_OPERAND0_ALPHA, GL10.GL_SRC_ALPHA,
+					GL11.GL_SRC1_ALPHA, GL11.GL_PRIMARY_COLOR,
+					GL11.GL_OPERAND1_ALPHA, GL10.GL_SRC_ALPHA);
+			gl11.glTexEnvi(GL10.GL_TEXTURE_ENV, GL11.GL_SRC2_ALPHA,
+					GL11.GL_PREVIOUS);
+			gl11.glTexEnvi(GL10.GL_TEXTURE_ENV, GL11.GL_OPERAND2_ALPHA,
+					GL10.GL_SRC_ALPHA);
+
+			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, first, count);
+
+			// Restore default texture environment.
+			gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
+					GL10.GL_MODULATE);
+			gl.glDisable(GL10.GL_TEXTURE_2D);
+			gl.glActiveTexture(GL10.GL_TEXTURE0);
+			gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
+					GL10.GL_MODULATE);
+			gl.glDisable(GL10.GL_TEXTURE_2D);
+			resetTextureMatrix(gl);
+			return;
+		}
+
+		// Draw blank vertices.
+		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, first, count);
+
+		// Draw texture.
+		gl.glEnable(GL10.GL_BLEND);
+		gl.glEnable(GL10.GL_TEXTURE_2D);
+		gl.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
+		gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, first, count);
+		gl.glDisable(GL10.GL_BLEND);
+		gl.glDisable(GL10.GL_TEXTURE_2D);
+		resetTextureMatrix(gl);
+	}
+
+	/**
+	 * Returns number of curl calls skipped as their quantized parameters were
+	 * equal to previous curl.
+	 */
+	public int getCurlHits() {
+		return mCurlHits;
+	}
+
+	/**
+	 * Calculates quantized memoization key for given curl parameters. Position
+	 * and radius are quantized to mCurlQuantum pixels, and direction so that
+	 * page corners move at most about the same. Without pixel scale values are
+	 * compared as is. Page colors are part of the key as they are baked into
+	 * vertex colors.
+	 */
+	private void getCurlKey(PointF curlPos, PointF curlDir, double radius,
+			int[] key) {
+		if (mPixelScale > 0 && mCurlQuantum > 0) {
+			float step = mPixelScale / mCurlQuantum;
+			float dirStep = step * mRectSize;
+			key[0] = Math.round(curlPos.x * step);
+			key[1] = Math.round(curlPos.y * step);
+			key[2] = Math.round(curlDir.x * dirStep);
+			key[3] = Math.round(curlDir.y * dirStep);
+			key[4] = (int) Math.round(radius * step);
+		} else {
+			key[0] = Float.floatToIntBits(curlPos.x);
+			key[1] = Float.floatToIntBits(curlPos.y);
+			key[2] = Float.floatToIntBits(curlDir.x);
+			key[3] = Float.floatToIntBits(curlDir.y);
+			key[4] = Float.floatToIntBits((float) radius);
+		}
+		key[5] = mFlipTexture ? 1 : 0;
+		key[6] = mTexturePage.getColor(CurlPage.SIDE_FRONT);
+		key[7] = mTexturePage.getColor(CurlPage.SIDE_BACK);
+	}
+
+	/**
+	 * Returns number of curl calls which recalculated the mesh.
+	 */
+	public int getCurlMisses() {
+		return mCurlMisses;
+	}
+
+	/**
+	 * Returns split count used for latest curl.
+	 */
+	public int getCurlSplits() {
+		return mCurlSplits;
+	}
+
+	/**
+	 * Returns keyframe cache key for given animation key. Mesh state that
+	 * affects curl result is appended to animation key. Key is reused for as
+	 * long as animation and mesh state stay the same.
+	 */
+	private int[] getKeyframeKey(int[] animation) {
+		int[] key = mKeyframeKey;
+		int colorFront = mTexturePage.getColor(CurlPage.SIDE_FRONT);
+		int colorBack = mTexturePage.getColor(CurlPage.SIDE_BACK);
+		int i = animation.length;
+		if (key != null && animation == mKeyframeAnimation
+				&& key[i + 6] == colorFront && key[i + 7] == colorBack) {
+			return key;
+		}
+		key = new int[animation.length + 13];
+		System.arraycopy(animation, 0, key, 0, animation.length);
+		key[i++] = Float.floatToIntBits(mRect.left);
+		key[i++] = Float.floatToIntBits(mRect.top);
+		key[i++] = Float.floatToIntBits(mRect.right);
+		key[i++] = Float.floatToIntBits(mRect.bottom);
+		key[i++] = mVertexFormat;
+		key[i++] = mFlipTexture ? 1 : 0;
+		key[i++] = colorFront;
+		key[i++] = colorBack;
+		key[i++] = mMaxCurlSplits;
+		key[i++] = mAdaptiveCurlSplits ? 1 : 0;
+		key[i++] = Float.floatToIntBits(mCurlSplitLength);
+		key[i++] = Float.floatToIntBits(mPixelScale);
+		key[i++] = Float.floatToIntBits(mCurlQuantum);
+		mKeyframeAnimation = animation;
+		mKeyframeKey = key;
+		return key;
+	}
+
+	/**
+	 * Returns maximum split count given in constructor.
+	 */
+	public int getMaxCurlSplits() {
+		return mMaxCurlSplits;
+	}
+
+	/**
+	 * Returns curl profile for given split count. Profiles are cached and
+	 * least recently used one is dropped once cache is full.
+	 */
+	private static synchronized Profile getProfile(int splits) {
+		Profile profile = null;
+		int idx = 0;
+		for (; idx < PROFILE_CACHE_SIZE - 1; ++idx) {
+			if (sProfileCache[idx] == null
+					|| sProfileCache[idx].mSplits == splits) {
+				break;
+			}
+		}
+		profile = sProfileCache[idx];
+		if (profile == null || profile.mSplits != splits) {
+			profile = new Profile(splits);
+		}
+		// Move profile to the front of cache.
+		for (; idx > 0; --idx) {
+			sProfileCache[idx] = sProfileCache[idx - 1];
+		}
+		sProfileCache[0] = profile;
+		return profile;
+	}
+
+	/**
+	 * Returns number of shadow vertices, drop and self shadow, in latest
+	 * mesh.
+	 */
+	public int getShadowVertexCount() {
+		return mShadowVertexCount;
+	}
+
+	/**
+	 * Returns id of front (0) or back (1) texture, or zero if there is no
+	 * texture.
+	 */
+	private int getTextureId(int index) {
+		return mTextures[index] != null ? mTextures[index].getId() : 0;
+	}
+
 	/**
 	 * Getter for textures page for this mesh.
 	 */
-	public synchronized CurlPage getTexturePage() {
+	public CurlPage getTexturePage() {
 		return mTexturePage;
 	}
 
+	/**
+	 * Returns number of vertex bytes uploaded to GL during latest
+	 * onDrawFrame. If buffer objects are not used this equals to the size of
+	 * all vertices as they are copied from client memory every frame.
+	 */
+	public int getUploadedBytes() {
+		return mUploadedBytes;
+	}
+
+	/**
+	 * Returns number of page vertices, front and back facing, in latest
+	 * mesh.
+	 */
+	public int getVertexCount() {
+		return mVertexCount;
+	}
+
+	/**
+	 * Returns buffers curl or reset is written into, allocated for current
+	 * vertex format and rewound.
+	 */
+	private MeshBuffers getWriteBuffers() {
+		MeshBuffers buffers = mBuffers;
+		buffers.allocate(mVertexFormat, mMaxCurlSplits,
+				mCurlPositionLinesCount);
+		buffers.rewind();
+		return buffers;
+	}
+
 	/**
 	 * Renders our page curl mesh.
 	 */
-	public synchronized void onDrawFrame(GL10 gl) {
-		// First allocate texture if there is not one yet.
-		if (DRAW_TEXTURE && mTextureIds == null) {
-			// Generate texture.
-			mTextureIds = new int[2];
-			gl.glGenTextures(2, mTextureIds, 0);
-			for (int textureId : mTextureIds) {
-				// Set texture attributes.
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
-				gl.glTexParameterf(GL10.GL_TEXTURE_2D,
-						GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_NEAREST);
-				gl.glTexParameterf(GL10.GL_TEXTURE_2D,
-						GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_NEAREST);
-				gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
-						GL10.GL_CLAMP_TO_EDGE);
-				gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
-						GL10.GL_CLAMP_TO_EDGE);
-			}
+	public void onDrawFrame(GL10 gl) {
+		MeshBuffers buffers = mBuffers;
+
+		// Check GL capabilities once GL context is (re)created.
+		if (!mCapabilitiesChecked) {
+			mSinglePassSupported = isSinglePassSupported(gl);
+			mBufferObjectsSupported = isGL11(gl);
+			mCapabilitiesChecked = true;
 		}
 
-		if (DRAW_TEXTURE && mTexturePage.getTexturesChanged()) {
-			gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[0]);
-			Bitmap texture = mTexturePage.getTexture(mTextureRectFront,
-					CurlPage.SIDE_FRONT);
-			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, texture, 0);
-			texture.recycle();
+		updateTextures(gl);
 
-			mTextureBack = mTexturePage.hasBackTexture();
-			if (mTextureBack) {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[1]);
-				texture = mTexturePage.getTexture(mTextureRectBack,
-						CurlPage.SIDE_BACK);
-				GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, texture, 0);
-				texture.recycle();
-			} else {
-				mTextureRectBack.set(mTextureRectFront);
+		// Upload vertices into buffer objects if they are used. Otherwise
+		// all vertices are copied from client memory on every frame.
+		if (mBufferObjects && mBufferObjectsSupported) {
+			if (mBufferIds == null) {
+				mBufferIds = new int[BUFFER_COUNT];
+				((GL11) gl).glGenBuffers(BUFFER_COUNT, mBufferIds, 0);
+				mBufferDataChanged = true;
 			}
-
-			mTexturePage.recycle();
-			reset();
+			mUploadedBytes = 0;
+			if (mBufferDataChanged) {
+				mUploadedBytes = uploadBuffers((GL11) gl, buffers);
+				mBufferDataChanged = false;
+			}
+		} else {
+			mUploadedBytes = buffers.getVertexBytes()
+					+ buffers.getShadowVertexBytes();
 		}
 
 		// Some 'global' settings.
@@ -652,67 +1099,30 @@ public class CurlMesh {
 			gl.glEnable(GL10.GL_BLEND);
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-			gl.glColorPointer(4, GL10.GL_FLOAT, 0, mBufShadowColors);
-			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mBufShadowVertices);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, mDropShadowCount);
+			setShadowPointers(gl, buffers);
+			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, buffers.mDropShadowCount);
 			gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
 			gl.glDisable(GL10.GL_BLEND);
 		}
 
 		if (DRAW_TEXTURE) {
 			gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-			gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mBufTexCoords);
 		}
-		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mBufVertices);
 		// Enable color array.
 		gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-		gl.glColorPointer(4, GL10.GL_FLOAT, 0, mBufColors);
+		setVertexPointers(gl, buffers);
 
-		// Draw front facing blank vertices.
+		// Draw front facing page.
 		gl.glDisable(GL10.GL_TEXTURE_2D);
-		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, mVerticesCountFront);
-
-		// Draw front facing texture.
-		if (DRAW_TEXTURE) {
-			gl.glEnable(GL10.GL_BLEND);
-			gl.glEnable(GL10.GL_TEXTURE_2D);
+		int countFront = buffers.mVerticesCountFront;
+		boolean flipTexture = buffers.mDeformer.getFlipTexture() != 0f;
+		drawPage(gl, 0, countFront, !flipTexture || !mTextureBack);
 
-			if (!mFlipTexture || !mTextureBack) {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[0]);
-			} else {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[1]);
-			}
+		int backStartIdx = Math.max(0, countFront - 2);
+		int backCount = countFront + buffers.mVerticesCountBack - backStartIdx;
 
-			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, mVerticesCountFront);
-
-			gl.glDisable(GL10.GL_BLEND);
-			gl.glDisable(GL10.GL_TEXTURE_2D);
-		}
-
-		int backStartIdx = Math.max(0, mVerticesCountFront - 2);
-		int backCount = mVerticesCountFront + mVerticesCountBack - backStartIdx;
-
-		// Draw back facing blank vertices.
-		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, backStartIdx, backCount);
-
-		// Draw back facing texture.
-		if (DRAW_TEXTURE) {
-			gl.glEnable(GL10.GL_BLEND);
-			gl.glEnable(GL10.GL_TEXTURE_2D);
-
-			if (mFlipTexture || !mTextureBack) {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[0]);
-			} else {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[1]);
-			}
-
-			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, backStartIdx, backCount);
-
-			gl.glDisable(GL10.GL_BLEND);
-			gl.glDisable(GL10.GL_TEXTURE_2D);
-		}
+		// Draw back facing page.
+		drawPage(gl, backStartIdx, backCount, flipTexture || !mTextureBack);
 
 		// Disable textures and color array.
 		gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
@@ -723,8 +1133,8 @@ public class CurlMesh {
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glLineWidth(1.0f);
 			gl.glColor4f(0.5f, 0.5f, 1.0f, 1.0f);
-			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mBufVertices);
-			gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, mVerticesCountFront);
+			setVertexPointers(gl, buffers);
+			gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, countFront);
 			gl.glDisable(GL10.GL_BLEND);
 		}
 
@@ -733,7 +1143,8 @@ public class CurlMesh {
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glLineWidth(1.0f);
 			gl.glColor4f(1.0f, 0.5f, 0.5f, 1.0f);
-			gl.glVertexPointer(2, GL10.GL_FLOAT, 0, mBufCurlPositionLines);
+			gl.glVertexPointer(2, GL10.GL_FLOAT, 0,
+					buffers.mBufCurlPositionLines);
 			gl.glDrawArrays(GL10.GL_LINES, 0, mCurlPositionLinesCount * 2);
 			gl.glDisable(GL10.GL_BLEND);
 		}
@@ -742,10 +1153,9 @@ public class CurlMesh {
 			gl.glEnable(GL10.GL_BLEND);
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-			gl.glColorPointer(4, GL10.GL_FLOAT, 0, mBufShadowColors);
-			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mBufShadowVertices);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, mDropShadowCount,
-					mSelfShadowCount);
+			setShadowPointers(gl, buffers);
+			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, buffers.mDropShadowCount,
+					buffers.mSelfShadowCount);
 			gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
 			gl.glDisable(GL10.GL_BLEND);
 		}
@@ -753,59 +1163,169 @@ public class CurlMesh {
 		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 	}
 
+	/**
+	 * Returns a buffer sharing content with given buffer but starting at given
+	 * offset. Used for pointing at attributes of interleaved vertices.
+	 */
+	private static ByteBuffer getBufferAt(ByteBuffer buffer, int offset) {
+		buffer.position(offset);
+		ByteBuffer slice = buffer.slice();
+		buffer.position(0);
+		return slice;
+	}
+
+	/**
+	 * Renders page using given CurlShader. Curl deformation is done in vertex
+	 * shader hence there is no need to calculate or upload vertices. Shadows
+	 * are not rendered on this path.
+	 */
+	public void onDrawFrame(GL10 gl, CurlShader shader) {
+		MeshBuffers buffers = mBuffers;
+		updateTextures(gl);
+		mUploadedBytes = 0;
+
+		int textureBack = getTextureId(mTextureBack ? 1 : 0);
+		shader.draw(buffers.mDeformer,
+				mTexturePage.getColor(CurlPage.SIDE_FRONT),
+				mTexturePage.getColor(CurlPage.SIDE_BACK), mTextureRectFront,
+				mTextureRectBack, getTextureId(0), textureBack);
+	}
+
+	/**
+	 * Stores current curl parameters into buffers once curl or reset has
+	 * written them, marking them to be uploaded on next onDrawFrame.
+	 */
+	private void finishBuffers(boolean stream) {
+		MeshBuffers buffers = mBuffers;
+		buffers.mStream = stream;
+		buffers.mDeformer.setRect(mRect.left, mRect.top, mRect.right,
+				mRect.bottom);
+		buffers.mDeformer.setFlipTexture(mFlipTexture);
+		if (mCurled) {
+			buffers.mDeformer.setCurl(mCurlPos.x, mCurlPos.y, mCurlDir.x,
+					mCurlDir.y, mCurlRadius);
+		} else {
+			buffers.mDeformer.setFlat();
+		}
+		mVertexCount = buffers.mVerticesCountFront
+				+ buffers.mVerticesCountBack;
+		mShadowVertexCount = buffers.mDropShadowCount
+				+ buffers.mSelfShadowCount;
+		mBufferDataChanged = true;
+	}
+
 	/**
 	 * Resets mesh to 'initial' state. Meaning this mesh will draw a plain
 	 * textured rectangle after call to this method.
 	 */
-	public synchronized void reset() {
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
-		}
+	public void reset() {
+		MeshBuffers out = getWriteBuffers();
+		Vertices vert = mVertices;
 		for (int i = 0; i < 4; ++i) {
-			Vertex tmp = mArrTempVertices.get(0);
-			tmp.set(mRectangle[i]);
+			int tmp = mArrTempVertices.get(0);
+			vert.set(tmp, i);
 
 			if (mFlipTexture) {
-				tmp.mTexX *= mTextureRectBack.right;
-				tmp.mTexY *= mTextureRectBack.bottom;
-				tmp.mColor = mTexturePage.getColor(CurlPage.SIDE_BACK);
+				vert.mColor[tmp] = mTexturePage.getColor(CurlPage.SIDE_BACK);
 			} else {
-				tmp.mTexX *= mTextureRectFront.right;
-				tmp.mTexY *= mTextureRectFront.bottom;
-				tmp.mColor = mTexturePage.getColor(CurlPage.SIDE_FRONT);
+				vert.mColor[tmp] = mTexturePage.getColor(CurlPage.SIDE_FRONT);
 			}
 
-			addVertex(tmp);
+			addVertex(out, tmp);
 		}
-		mVerticesCountFront = 4;
-		mVerticesCountBack = 0;
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
+		out.mVerticesCountFront = 4;
+		out.mVerticesCountBack = 0;
+		out.rewind();
+
+		out.mDropShadowCount = out.mSelfShadowCount = 0;
+
+		mCurled = mCurlPending = false;
+		mCurlKeyValid = false;
+		finishBuffers(false);
+	}
+
+	/**
+	 * Deletes buffer objects of this mesh and gives its textures back to
+	 * texture pool. Page waiting for upload, if any, is released. Should be
+	 * called on rendering thread once mesh is no longer used.
+	 */
+	public void release(GL10 gl) {
+		if (mBufferIds != null) {
+			((GL11) gl).glDeleteBuffers(BUFFER_COUNT, mBufferIds, 0);
+			mBufferIds = null;
 		}
+		if (mTexturePool != null) {
+			mTexturePool.release(gl, mTextures[0]);
+			mTexturePool.release(gl, mTextures[1]);
+		}
+		mTextures[0] = mTextures[1] = null;
+		mTexturePage.release();
+	}
+
+	/**
+	 * Resets allocated buffer object ids forcing creation of new ones. This
+	 * method should be called once GL context is re-created as previous ids
+	 * are not released.
+	 */
+	public void resetBufferObjects() {
+		mBufferIds = null;
+		mCapabilitiesChecked = false;
+	}
+
+	/**
+	 * Forgets textures taken from texture pool. After calling this method you
+	 * most likely want to set bitmap too as it's lost. This method should be
+	 * called only once e.g GL context is re-created, textures of previous
+	 * context are gone with it and pool is reset too.
+	 */
+	public void resetTexture() {
+		mTextures[0] = mTextures[1] = null;
+		mCapabilitiesChecked = false;
+	}
 
-		mDropShadowCount = mSelfShadowCount = 0;
+	/**
+	 * Restores identity texture matrix after drawing page, leaving modelview
+	 * matrix current.
+	 */
+	private void resetTextureMatrix(GL10 gl) {
+		gl.glMatrixMode(GL10.GL_TEXTURE);
+		gl.glLoadIdentity();
+		gl.glMatrixMode(GL10.GL_MODELVIEW);
+	}
+
+	/**
+	 * Enables or disables adaptive curl split count. Once enabled split count
+	 * is chosen on every curl so that arc length of one split is about
+	 * splitLength pixels, never exceeding maximum split count given in
+	 * constructor. Pixel scale has to be set for adaptive mode to have an
+	 * effect.
+	 */
+	public void setAdaptiveCurlSplits(boolean adaptive,
+			float splitLength) {
+		mAdaptiveCurlSplits = adaptive;
+		mCurlSplitLength = Math.max(splitLength, 1f);
+		mCurlKeyValid = false;
+		mKeyframeKey = null;
 	}
 
 	/**
-	 * Resets allocated texture id forcing creation of new one. After calling
-	 * this method you most likely want to set bitmap too as it's lost. This
-	 * method should be called only once e.g GL context is re-created as this
-	 * method does not release previous texture id, only makes sure new one is
-	 * requested on next render.
+	 * Sets curl position quantization step in pixels. Curls which differ less
+	 * than this from previous one reuse previous mesh. Zero disables
+	 * quantization, only identical curls are skipped then.
 	 */
-	public synchronized void resetTexture() {
-		mTextureIds = null;
+	public void setCurlQuantum(float pixels) {
+		mCurlQuantum = Math.max(pixels, 0f);
+		mCurlKeyValid = false;
+		mKeyframeKey = null;
 	}
 
 	/**
 	 * If true, flips texture sideways.
 	 */
-	public synchronized void setFlipTexture(boolean flipTexture) {
+	public void setFlipTexture(boolean flipTexture) {
 		mFlipTexture = flipTexture;
+		mCurlKeyValid = false;
+		mKeyframeKey = null;
 		if (flipTexture) {
 			setTexCoords(1f, 0f, 0f, 1f);
 		} else {
@@ -813,96 +1333,401 @@ public class CurlMesh {
 		}
 	}
 
+	/**
+	 * Enables or disables shader curl mode. Once enabled curl only stores
+	 * given parameters for CurlShader to use and vertices are calculated only
+	 * if mesh is drawn using fixed function pipeline.
+	 */
+	public void setShaderCurl(boolean shaderCurl) {
+		mShaderCurl = shaderCurl;
+		if (!shaderCurl && mCurlPending) {
+			curlVertices(mCurlPos, mCurlDir, mCurlRadius);
+			mCurlPending = false;
+		}
+	}
+
+	/**
+	 * Sets shadow vertex and color pointers for current vertex format.
+	 */
+	private void setShadowPointers(GL10 gl, MeshBuffers buffers) {
+		if (mBufferObjects && mBufferObjectsSupported) {
+			GL11 gl11 = (GL11) gl;
+			if (buffers.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+						mBufferIds[BUFFER_SHADOW_VERTICES]);
+				gl11.glColorPointer(4, GL10.GL_UNSIGNED_BYTE,
+						STRIDE_SHADOW_VERTEX, OFFSET_SHADOW_COLOR);
+				gl11.glVertexPointer(3, GL10.GL_FLOAT, STRIDE_SHADOW_VERTEX, 0);
+			} else {
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+						mBufferIds[BUFFER_SHADOW_COLORS]);
+				gl11.glColorPointer(4, GL10.GL_FLOAT, 0, 0);
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+						mBufferIds[BUFFER_SHADOW_VERTICES]);
+				gl11.glVertexPointer(3, GL10.GL_FLOAT, 0, 0);
+			}
+			gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		} else if (buffers.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+			gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, STRIDE_SHADOW_VERTEX,
+					buffers.mBufInterleavedShadowColors);
+			gl.glVertexPointer(3, GL10.GL_FLOAT, STRIDE_SHADOW_VERTEX,
+					buffers.mBufInterleavedShadowVertices);
+		} else {
+			gl.glColorPointer(4, GL10.GL_FLOAT, 0, buffers.mBufShadowColors);
+			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, buffers.mBufShadowVertices);
+		}
+	}
+
+	/**
+	 * Enables or disables use of buffer objects. Once enabled, and if
+	 * supported by GL context, vertices are uploaded into buffer objects only
+	 * when they change. Otherwise they are read from client memory on every
+	 * frame.
+	 */
+	public void setBufferObjects(boolean bufferObjects) {
+		mBufferObjects = bufferObjects;
+		mBufferDataChanged = true;
+	}
+
+	/**
+	 * Enables or disables single pass page rendering. Once enabled, page color
+	 * and texture are drawn in one pass using texture combiners if they are
+	 * supported. Otherwise two passes are used, first one for drawing color
+	 * and second one for blending texture on top of it.
+	 */
+	public void setSinglePassRendering(boolean singlePass) {
+		mSinglePassRendering = singlePass;
+	}
+
+	/**
+	 * Sets texture combiner function and its first two arguments into
+	 * current texture environment.
+	 */
+	private static void setTexEnvCombine(GL11 gl, int combine, int function,
+			int src0, int src0Value, int operand0, int operand0Value,
+			int src1, int src1Value, int operand1, int operand1Value) {
+		gl.glTexEnvi(GL10.GL_TEXTURE_ENV, combine, function);
+		gl.glTexEnvi(GL10.GL_TEXTURE_ENV, src0, src0Value);
+		gl.glTexEnvi(GL10.GL_TEXTURE_ENV, operand0, operand0Value);
+		gl.glTexEnvi(GL10.GL_TEXTURE_ENV, src1, src1Value);
+		gl.glTexEnvi(GL10.GL_TEXTURE_ENV, operand1, operand1Value);
+	}
+
+	/**
+	 * Sets vertex format, either VERTEX_FORMAT_SEPARATE or
+	 * VERTEX_FORMAT_INTERLEAVED. Mesh is reset to initial state once format
+	 * changes.
+	 */
+	public void setVertexFormat(int vertexFormat) {
+		if (vertexFormat == mVertexFormat
+				|| (vertexFormat != VERTEX_FORMAT_SEPARATE
+						&& vertexFormat != VERTEX_FORMAT_INTERLEAVED)) {
+			return;
+		}
+		// Buffers for new format are allocated once they are written to.
+		mVertexFormat = vertexFormat;
+		mKeyframeKey = null;
+		reset();
+	}
+
+	/**
+	 * Sets vertex, color and texture coordinate pointers for current vertex
+	 * format.
+	 */
+	private void setVertexPointers(GL10 gl, MeshBuffers buffers) {
+		if (mBufferObjects && mBufferObjectsSupported) {
+			GL11 gl11 = (GL11) gl;
+			if (buffers.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+						mBufferIds[BUFFER_VERTICES]);
+				gl11.glVertexPointer(3, GL10.GL_FLOAT, STRIDE_VERTEX, 0);
+				gl11.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, STRIDE_VERTEX,
+						OFFSET_COLOR);
+				if (DRAW_TEXTURE) {
+					gl11.glTexCoordPointer(2, GL10.GL_FLOAT, STRIDE_VERTEX,
+							OFFSET_TEX_COORD);
+				}
+			} else {
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+						mBufferIds[BUFFER_VERTICES]);
+				gl11.glVertexPointer(3, GL10.GL_FLOAT, 0, 0);
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+						mBufferIds[BUFFER_COLORS]);
+				gl11.glColorPointer(4, GL10.GL_FLOAT, 0, 0);
+				if (DRAW_TEXTURE) {
+					gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER,
+							mBufferIds[BUFFER_TEX_COORDS]);
+					gl11.glTexCoordPointer(2, GL10.GL_FLOAT, 0, 0);
+				}
+			}
+			gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		} else if (buffers.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+			gl.glVertexPointer(3, GL10.GL_FLOAT, STRIDE_VERTEX,
+					buffers.mBufInterleavedVertices);
+			gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, STRIDE_VERTEX,
+					buffers.mBufInterleavedColors);
+			if (DRAW_TEXTURE) {
+				gl.glTexCoordPointer(2, GL10.GL_FLOAT, STRIDE_VERTEX,
+						buffers.mBufInterleavedTexCoords);
+			}
+		} else {
+			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, buffers.mBufVertices);
+			gl.glColorPointer(4, GL10.GL_FLOAT, 0, buffers.mBufColors);
+			if (DRAW_TEXTURE) {
+				gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0,
+						buffers.mBufTexCoords);
+			}
+		}
+	}
+
+	/**
+	 * Sets number of pixels per view coordinate unit. Used for calculating
+	 * on-screen size of the curl in adaptive mode.
+	 */
+	public void setPixelScale(float pixelsPerUnit) {
+		mPixelScale = pixelsPerUnit;
+		mCurlKeyValid = false;
+		mKeyframeKey = null;
+	}
+
 	/**
 	 * Update mesh bounds.
 	 */
 	public void setRect(RectF r) {
-		mRectangle[0].mPosX = r.left;
-		mRectangle[0].mPosY = r.top;
-		mRectangle[1].mPosX = r.left;
-		mRectangle[1].mPosY = r.bottom;
-		mRectangle[2].mPosX = r.right;
-		mRectangle[2].mPosY = r.top;
-		mRectangle[3].mPosX = r.right;
-		mRectangle[3].mPosY = r.bottom;
+		Vertices vert = mVertices;
+		vert.mPosX[0] = r.left;
+		vert.mPosY[0] = r.top;
+		vert.mPosX[1] = r.left;
+		vert.mPosY[1] = r.bottom;
+		vert.mPosX[2] = r.right;
+		vert.mPosY[2] = r.top;
+		vert.mPosX[3] = r.right;
+		vert.mPosY[3] = r.bottom;
+		mRect.set(r);
+		mRectSize = Math.max(Math.abs(r.width()), Math.abs(r.height()));
+		mCurlKeyValid = false;
+		mKeyframeKey = null;
 	}
 
 	/**
-	 * Sets texture coordinates to mRectangle vertices.
+	 * Takes over colors and textures of given page, see CurlPage.set. Colors
+	 * are baked into vertices so mesh is rebuilt with latest curl if they
+	 * change.
 	 */
-	private synchronized void setTexCoords(float left, float top, float right,
+	public void setTexturePage(CurlPage page) {
+		int colorFront = mTexturePage.getColor(CurlPage.SIDE_FRONT);
+		int colorBack = mTexturePage.getColor(CurlPage.SIDE_BACK);
+		mTexturePage.set(page);
+		if (colorFront == mTexturePage.getColor(CurlPage.SIDE_FRONT)
+				&& colorBack == mTexturePage.getColor(CurlPage.SIDE_BACK)) {
+			return;
+		}
+		if (mCurled) {
+			curl(mCurlPos, mCurlDir, mCurlRadius);
+		} else {
+			reset();
+		}
+	}
+
+	/**
+	 * Sets texture pool textures are taken from. Should be called from
+	 * rendering thread before mesh is drawn.
+	 */
+	public void setTexturePool(CurlTexturePool texturePool) {
+		mTexturePool = texturePool;
+	}
+
+	/**
+	 * Sets texture coordinates to rectangle vertices.
+	 */
+	private void setTexCoords(float left, float top, float right,
 			float bottom) {
-		mRectangle[0].mTexX = left;
-		mRectangle[0].mTexY = top;
-		mRectangle[1].mTexX = left;
-		mRectangle[1].mTexY = bottom;
-		mRectangle[2].mTexX = right;
-		mRectangle[2].mTexY = top;
-		mRectangle[3].mTexX = right;
-		mRectangle[3].mTexY = bottom;
+		Vertices vert = mVertices;
+		vert.mTexX[0] = left;
+		vert.mTexY[0] = top;
+		vert.mTexX[1] = left;
+		vert.mTexY[1] = bottom;
+		vert.mTexX[2] = right;
+		vert.mTexY[2] = top;
+		vert.mTexX[3] = right;
+		vert.mTexY[3] = bottom;
+	}
+
+	/**
+	 * Allocates textures if there are none yet and uploads new page textures
+	 * once they have changed.
+	 */
+	private void updateTextures(GL10 gl) {
+		// Textures are uploaded into storage taken from texture pool, which
+		// is reused as long as page size doesn't change. Page bitmaps drawn
+		// in upload size, or any bitmaps if non power of two textures are
+		// supported, are uploaded as they are, otherwise their power of two
+		// sized copies are. Copies and page bitmaps go back to Bitmap pool
+		// once uploaded.
+		if (DRAW_TEXTURE && mTexturePage.getTexturesChanged()) {
+			boolean npot = mTexturePool.isNpotSupported();
+			Bitmap texture = mTexturePage.getTexture(mTextureRectFront,
+					CurlPage.SIDE_FRONT, npot);
+			mTextures[0] = mTexturePool.upload(gl, mTextures[0], texture);
+			if (mTexturePage.isTextureCopied(CurlPage.SIDE_FRONT, npot)) {
+				mTexturePage.getBitmapPool().release(texture);
+			}
+
+			mTextureBack = mTexturePage.hasBackTexture();
+			if (mTextureBack) {
+				texture = mTexturePage.getTexture(mTextureRectBack,
+						CurlPage.SIDE_BACK, npot);
+				mTextures[1] = mTexturePool.upload(gl, mTextures[1], texture);
+				if (mTexturePage.isTextureCopied(CurlPage.SIDE_BACK, npot)) {
+					mTexturePage.getBitmapPool().release(texture);
+				}
+			} else {
+				mTextureRectBack.set(mTextureRectFront);
+				mTexturePool.release(gl, mTextures[1]);
+				mTextures[1] = null;
+			}
+
+			mTexturePage.recycle();
+		}
+	}
+
+	/**
+	 * Uploads given data into buffer object. Streamed data orphans previous
+	 * buffer storage before uploading so that driver does not have to wait
+	 * for previous frame to finish with it. Returns number of bytes uploaded.
+	 */
+	private static int uploadBuffer(GL11 gl, int bufferId, Buffer data,
+			int bytes, int capacity, boolean stream) {
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, bufferId);
+		if (stream) {
+			gl.glBufferData(GL11.GL_ARRAY_BUFFER, capacity, null,
+					GL11.GL_STREAM_DRAW);
+			if (bytes > 0) {
+				gl.glBufferSubData(GL11.GL_ARRAY_BUFFER, 0, bytes, data);
+			}
+		} else {
+			gl.glBufferData(GL11.GL_ARRAY_BUFFER, bytes, data,
+					GL11.GL_STATIC_DRAW);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Uploads vertex buffers into buffer objects. Returns number of bytes
+	 * uploaded.
+	 */
+	private int uploadBuffers(GL11 gl, MeshBuffers buffers) {
+		int bytes = 0;
+		int vertexCount = buffers.mVerticesCountFront
+				+ buffers.mVerticesCountBack;
+		int shadowCount = buffers.mDropShadowCount + buffers.mSelfShadowCount;
+		boolean stream = buffers.mStream;
+		FloatBuffer mBufColors = buffers.mBufColors;
+		FloatBuffer mBufShadowColors = buffers.mBufShadowColors;
+		FloatBuffer mBufShadowVertices = buffers.mBufShadowVertices;
+		FloatBuffer mBufTexCoords = buffers.mBufTexCoords;
+		FloatBuffer mBufVertices = buffers.mBufVertices;
+		ByteBuffer mBufInterleavedShadowVertices = buffers.mBufInterleavedShadowVertices;
+		ByteBuffer mBufInterleavedVertices = buffers.mBufInterleavedVertices;
+		if (buffers.mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+			bytes += uploadBuffer(gl, mBufferIds[BUFFER_VERTICES],
+					mBufInterleavedVertices, vertexCount * STRIDE_VERTEX,
+					mBufInterleavedVertices.capacity(), stream);
+			if (DRAW_SHADOW) {
+				bytes += uploadBuffer(gl, mBufferIds[BUFFER_SHADOW_VERTICES],
+						mBufInterleavedShadowVertices, shadowCount
+								* STRIDE_SHADOW_VERTEX,
+						mBufInterleavedShadowVertices.capacity(), stream);
+			}
+		} else {
+			bytes += uploadBuffer(gl, mBufferIds[BUFFER_VERTICES],
+					mBufVertices, vertexCount * 3 * 4,
+					mBufVertices.capacity() * 4, stream);
+			bytes += uploadBuffer(gl, mBufferIds[BUFFER_COLORS], mBufColors,
+					vertexCount * 4 * 4, mBufColors.capacity() * 4, stream);
+			if (DRAW_TEXTURE) {
+				bytes += uploadBuffer(gl, mBufferIds[BUFFER_TEX_COORDS],
+						mBufTexCoords, vertexCount * 2 * 4,
+						mBufTexCoords.capacity() * 4, stream);
+			}
+			if (DRAW_SHADOW) {
+				bytes += uploadBuffer(gl, mBufferIds[BUFFER_SHADOW_VERTICES],
+						mBufShadowVertices, shadowCount * 3 * 4,
+						mBufShadowVertices.capacity() * 4, stream);
+				bytes += uploadBuffer(gl, mBufferIds[BUFFER_SHADOW_COLORS],
+						mBufShadowColors, shadowCount * 4 * 4,
+						mBufShadowColors.capacity() * 4, stream);
+			}
+		}
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		return bytes;
 	}
 
 	/**
-	 * Simple fixed size array implementation.
+	 * Simple fixed size int array implementation. Items are stored in a ring
+	 * buffer making adding to the end and removing from the beginning
+	 * constant time operations.
 	 */
-	private class Array<T> {
-		private Object[] mArray;
+	private class IntArray {
+		private int[] mArray;
 		private int mCapacity;
+		private int mHead;
 		private int mSize;
 
-		public Array(int capacity) {
+		public IntArray(int capacity) {
 			mCapacity = capacity;
-			mArray = new Object[capacity];
+			mArray = new int[capacity];
 		}
 
-		public void add(int index, T item) {
+		/**
+		 * Inserts item at given index. Items after index are shifted, which is
+		 * fine for short arrays only.
+		 */
+		public void add(int index, int item) {
 			if (index < 0 || index > mSize || mSize >= mCapacity) {
 				throw new IndexOutOfBoundsException();
 			}
 			for (int i = mSize; i > index; --i) {
-				mArray[i] = mArray[i - 1];
+				mArray[(mHead + i) % mCapacity] = mArray[(mHead + i - 1)
+						% mCapacity];
 			}
-			mArray[index] = item;
+			mArray[(mHead + index) % mCapacity] = item;
 			++mSize;
 		}
 
-		public void add(T item) {
+		public void add(int item) {
 			if (mSize >= mCapacity) {
 				throw new IndexOutOfBoundsException();
 			}
-			mArray[mSize++] = item;
+			mArray[(mHead + mSize++) % mCapacity] = item;
 		}
 
-		public void addAll(Array<T> array) {
+		public void addAll(IntArray array) {
 			if (mSize + array.size() > mCapacity) {
 				throw new IndexOutOfBoundsException();
 			}
 			for (int i = 0; i < array.size(); ++i) {
-				mArray[mSize++] = array.get(i);
+				mArray[(mHead + mSize++) % mCapacity] = array.get(i);
 			}
 		}
 
 		public void clear() {
-			mSize = 0;
+			mHead = mSize = 0;
 		}
 
-		@SuppressWarnings("unchecked")
-		public T get(int index) {
+		public int get(int index) {
 			if (index < 0 || index >= mSize) {
 				throw new IndexOutOfBoundsException();
 			}
-			return (T) mArray[index];
+			return mArray[(mHead + index) % mCapacity];
 		}
 
-		@SuppressWarnings("unchecked")
-		public T remove(int index) {
-			if (index < 0 || index >= mSize) {
+		public int removeFirst() {
+			if (mSize == 0) {
 				throw new IndexOutOfBoundsException();
 			}
-			T item = (T) mArray[index];
-			for (int i = index; i < mSize - 1; ++i) {
-				mArray[i] = mArray[i + 1];
-			}
+			int item = mArray[mHead];
+			mHead = (mHead + 1) % mCapacity;
 			--mSize;
 			return item;
 		}
@@ -914,64 +1739,448 @@ public class CurlMesh {
 	}
 
 	/**
-	 * Holder for shadow vertex information.
+	 * Set of output buffers holding one complete mesh, together with curl
+	 * parameters used for producing it.
+	 */
+	private static class MeshBuffers {
+		public FloatBuffer mBufColors;
+		public FloatBuffer mBufCurlPositionLines;
+		public ByteBuffer mBufInterleavedColors;
+		public ByteBuffer mBufInterleavedShadowColors;
+		public ByteBuffer mBufInterleavedShadowVertices;
+		public ByteBuffer mBufInterleavedTexCoords;
+		public ByteBuffer mBufInterleavedVertices;
+		public FloatBuffer mBufShadowColors;
+		public FloatBuffer mBufShadowVertices;
+		public FloatBuffer mBufTexCoords;
+		public FloatBuffer mBufVertices;
+		public final CurlDeformer mDeformer = new CurlDeformer();
+		public int mDropShadowCount;
+		public int mSelfShadowCount;
+		public boolean mStream;
+		public int mVertexFormat;
+		public int mVerticesCountBack;
+		public int mVerticesCountFront;
+
+		/**
+		 * Allocates buffers for given vertex format unless they exist
+		 * already.
+		 */
+		public void allocate(int vertexFormat, int maxCurlSplits,
+				int curlPositionLinesCount) {
+			mVertexFormat = vertexFormat;
+			if (curlPositionLinesCount > 0 && mBufCurlPositionLines == null) {
+				ByteBuffer hvbb = ByteBuffer
+						.allocateDirect(curlPositionLinesCount * 2 * 2 * 4);
+				hvbb.order(ByteOrder.nativeOrder());
+				mBufCurlPositionLines = hvbb.asFloatBuffer();
+				mBufCurlPositionLines.position(0);
+			}
+
+			// There are 4 vertices from bounding rect, max 2 from adding split
+			// line to two corners and curl consists of max maxCurlSplits lines
+			// each outputting 2 vertices.
+			int maxVerticesCount = 4 + 2 + (2 * maxCurlSplits);
+			int maxShadowVerticesCount = (maxCurlSplits + 2) * 2 * 2;
+
+			if (vertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				if (mBufInterleavedVertices == null) {
+					mBufInterleavedVertices = ByteBuffer
+							.allocateDirect(maxVerticesCount * STRIDE_VERTEX);
+					mBufInterleavedVertices.order(ByteOrder.nativeOrder());
+					mBufInterleavedTexCoords = getBufferAt(mBufInterleavedVertices,
+							OFFSET_TEX_COORD);
+					mBufInterleavedColors = getBufferAt(mBufInterleavedVertices,
+							OFFSET_COLOR);
+				}
+				if (DRAW_SHADOW && mBufInterleavedShadowVertices == null) {
+					mBufInterleavedShadowVertices = ByteBuffer
+							.allocateDirect(maxShadowVerticesCount
+									* STRIDE_SHADOW_VERTEX);
+					mBufInterleavedShadowVertices.order(ByteOrder.nativeOrder());
+					mBufInterleavedShadowColors = getBufferAt(
+							mBufInterleavedShadowVertices, OFFSET_SHADOW_COLOR);
+				}
+				return;
+			}
+
+			if (mBufVertices != null) {
+				return;
+			}
+
+			ByteBuffer vbb = ByteBuffer.allocateDirect(maxVerticesCount * 3 * 4);
+			vbb.order(ByteOrder.nativeOrder());
+			mBufVertices = vbb.asFloatBuffer();
+			mBufVertices.position(0);
+
+			if (DRAW_TEXTURE) {
+				ByteBuffer tbb = ByteBuffer
+						.allocateDirect(maxVerticesCount * 2 * 4);
+				tbb.order(ByteOrder.nativeOrder());
+				mBufTexCoords = tbb.asFloatBuffer();
+				mBufTexCoords.position(0);
+			}
+
+			ByteBuffer cbb = ByteBuffer.allocateDirect(maxVerticesCount * 4 * 4);
+			cbb.order(ByteOrder.nativeOrder());
+			mBufColors = cbb.asFloatBuffer();
+			mBufColors.position(0);
+
+			if (DRAW_SHADOW) {
+				ByteBuffer scbb = ByteBuffer
+						.allocateDirect(maxShadowVerticesCount * 4 * 4);
+				scbb.order(ByteOrder.nativeOrder());
+				mBufShadowColors = scbb.asFloatBuffer();
+				mBufShadowColors.position(0);
+
+				ByteBuffer sibb = ByteBuffer
+						.allocateDirect(maxShadowVerticesCount * 3 * 4);
+				sibb.order(ByteOrder.nativeOrder());
+				mBufShadowVertices = sibb.asFloatBuffer();
+				mBufShadowVertices.position(0);
+			}
+		}
+
+		/**
+		 * Returns size of shadow vertex data in bytes.
+		 */
+		public int getShadowVertexBytes() {
+			int stride = mVertexFormat == VERTEX_FORMAT_INTERLEAVED ? STRIDE_SHADOW_VERTEX
+					: (3 + 4) * 4;
+			return (mDropShadowCount + mSelfShadowCount) * stride;
+		}
+
+		/**
+		 * Returns size of vertex data in bytes.
+		 */
+		public int getVertexBytes() {
+			int stride = mVertexFormat == VERTEX_FORMAT_INTERLEAVED ? STRIDE_VERTEX
+					: (3 + 4 + (DRAW_TEXTURE ? 2 : 0)) * 4;
+			return (mVerticesCountFront + mVerticesCountBack) * stride;
+		}
+
+		/**
+		 * Copies given number of floats from the beginning of source buffer
+		 * into destination buffer at its current position.
+		 */
+		private static void copy(FloatBuffer src, int count, ByteBuffer dst) {
+			FloatBuffer data = src.duplicate();
+			data.position(0);
+			data.limit(count);
+			dst.asFloatBuffer().put(data);
+			dst.position(dst.position() + count * 4);
+		}
+
+		/**
+		 * Copies given number of bytes from the beginning of source buffer
+		 * into destination buffer at its current position.
+		 */
+		private static void copy(ByteBuffer src, int count, ByteBuffer dst) {
+			ByteBuffer data = src.duplicate();
+			data.position(0);
+			data.limit(count);
+			dst.put(data);
+		}
+
+		/**
+		 * Copies given number of floats from source buffer at its current
+		 * position into the beginning of destination buffer.
+		 */
+		private static void copy(ByteBuffer src, int count, FloatBuffer dst) {
+			FloatBuffer data = src.asFloatBuffer();
+			data.limit(count);
+			dst.position(0);
+			dst.put(data);
+			dst.position(0);
+			src.position(src.position() + count * 4);
+		}
+
+		/**
+		 * Copies given number of bytes from source buffer at its current
+		 * position into the beginning of destination buffer.
+		 */
+		private static void copyBytes(ByteBuffer src, int count,
+				ByteBuffer dst) {
+			ByteBuffer data = src.duplicate();
+			data.limit(data.position() + count);
+			dst.position(0);
+			dst.put(data);
+			dst.position(0);
+			src.position(src.position() + count);
+		}
+
+		/**
+		 * Restores buffer contents saved with save. Buffers have to be
+		 * allocated for the same vertex format saved data has.
+		 */
+		public void load(ByteBuffer data) {
+			data.position(0);
+			data.getInt();
+			mVerticesCountFront = data.getInt();
+			mVerticesCountBack = data.getInt();
+			mDropShadowCount = data.getInt();
+			mSelfShadowCount = data.getInt();
+			int count = mVerticesCountFront + mVerticesCountBack;
+			int shadowCount = mDropShadowCount + mSelfShadowCount;
+			if (mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				copyBytes(data, count * STRIDE_VERTEX, mBufInterleavedVertices);
+				if (DRAW_SHADOW) {
+					copyBytes(data, shadowCount * STRIDE_SHADOW_VERTEX,
+							mBufInterleavedShadowVertices);
+				}
+				return;
+			}
+			copy(data, count * 3, mBufVertices);
+			copy(data, count * 4, mBufColors);
+			if (DRAW_TEXTURE) {
+				copy(data, count * 2, mBufTexCoords);
+			}
+			if (DRAW_SHADOW) {
+				copy(data, shadowCount * 4, mBufShadowColors);
+				copy(data, shadowCount * 3, mBufShadowVertices);
+			}
+		}
+
+		/**
+		 * Rewinds vertex buffers to their beginning.
+		 */
+		public void rewind() {
+			if (mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				mBufInterleavedVertices.position(0);
+				return;
+			}
+			mBufVertices.position(0);
+			mBufColors.position(0);
+			if (DRAW_TEXTURE) {
+				mBufTexCoords.position(0);
+			}
+		}
+
+		/**
+		 * Rewinds shadow vertex buffers to their beginning.
+		 */
+		public void rewindShadow() {
+			if (mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				mBufInterleavedShadowVertices.position(0);
+				return;
+			}
+			mBufShadowColors.position(0);
+			mBufShadowVertices.position(0);
+		}
+
+		/**
+		 * Saves vertex counts and buffer contents into a new buffer.
+		 */
+		public ByteBuffer save() {
+			int count = mVerticesCountFront + mVerticesCountBack;
+			int shadowCount = mDropShadowCount + mSelfShadowCount;
+			int bytes = 5 * 4 + getVertexBytes()
+					+ (DRAW_SHADOW ? getShadowVertexBytes() : 0);
+			ByteBuffer data = ByteBuffer.allocateDirect(bytes);
+			data.order(ByteOrder.nativeOrder());
+			data.putInt(mVertexFormat);
+			data.putInt(mVerticesCountFront);
+			data.putInt(mVerticesCountBack);
+			data.putInt(mDropShadowCount);
+			data.putInt(mSelfShadowCount);
+			if (mVertexFormat == VERTEX_FORMAT_INTERLEAVED) {
+				copy(mBufInterleavedVertices, count * STRIDE_VERTEX, data);
+				if (DRAW_SHADOW) {
+					copy(mBufInterleavedShadowVertices, shadowCount
+							* STRIDE_SHADOW_VERTEX, data);
+				}
+			} else {
+				copy(mBufVertices, count * 3, data);
+				copy(mBufColors, count * 4, data);
+				if (DRAW_TEXTURE) {
+					copy(mBufTexCoords, count * 2, data);
+				}
+				if (DRAW_SHADOW) {
+					copy(mBufShadowColors, shadowCount * 4, data);
+					copy(mBufShadowVertices, shadowCount * 3, data);
+				}
+			}
+			data.position(0);
+			return data;
+		}
+	}
+
+	/**
+	 * Fixed size int array for ordering shadow vertices into a triangle strip.
+	 * Adding an item inserts it into the middle of the array, which is done in
+	 * constant time by filling first half from the beginning and second half
+	 * from the end of underlying array.
+	 */
+	private class StripArray {
+		private int[] mArray;
+		private int mCapacity;
+		private int mSizeFirst;
+		private int mSizeSecond;
+
+		public StripArray(int capacity) {
+			mCapacity = capacity;
+			mArray = new int[capacity];
+		}
+
+		/**
+		 * Inserts item at index (size() + 1) / 2.
+		 */
+		public void addMiddle(int item) {
+			if (mSizeFirst + mSizeSecond >= mCapacity) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (mSizeFirst == mSizeSecond) {
+				mArray[mSizeFirst++] = item;
+			} else {
+				mArray[mCapacity - ++mSizeSecond] = item;
+			}
+		}
+
+		public void clear() {
+			mSizeFirst = mSizeSecond = 0;
+		}
+
+		public int get(int index) {
+			if (index < 0 || index >= mSizeFirst + mSizeSecond) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (index < mSizeFirst) {
+				return mArray[index];
+			}
+			return mArray[mCapacity - mSizeSecond + index - mSizeFirst];
+		}
+
+		public int size() {
+			return mSizeFirst + mSizeSecond;
+		}
+
+	}
+
+	/**
+	 * Precalculated curl profile for given split count. Values are calculated
+	 * for a unit radius cylinder, scan line i lying at rotation angle -PI * i /
+	 * (splits - 1).
 	 */
-	private class ShadowVertex {
-		public double mPenumbraColor;
-		public double mPenumbraX;
-		public double mPenumbraY;
-		public double mPosX;
-		public double mPosY;
-		public double mPosZ;
+	private static class Profile {
+		public final float[] mColorFactor;
+		public final float[] mCos;
+		public final float[] mScanLine;
+		public final float[] mSin;
+		public final int mSplits;
+		public final float[] mVersine;
+
+		public Profile(int splits) {
+			mSplits = splits;
+			mColorFactor = new float[splits];
+			mCos = new float[splits];
+			mScanLine = new float[splits];
+			mSin = new float[splits];
+			mVersine = new float[splits];
+			for (int i = 0; i < splits; ++i) {
+				double rotY = i == 0 ? 0 : -Math.PI * i / (splits - 1);
+				mScanLine[i] = (float) rotY;
+				mSin[i] = (float) Math.sin(rotY);
+				mCos[i] = (float) Math.cos(rotY);
+				mVersine[i] = (float) (1 - Math.cos(rotY));
+				mColorFactor[i] = getColorFactor(mSin[i]);
+			}
+		}
 	}
 
 	/**
-	 * Holder for vertex information.
+	 * Holder for shadow vertex information. Shadow vertices are appended in
+	 * the order they are created and referenced by index.
 	 */
-	private class Vertex {
-		public int mColor;
-		public float mColorFactor;
-		public double mPenumbraX;
-		public double mPenumbraY;
-		public double mPosX;
-		public double mPosY;
-		public double mPosZ;
-		public double mTexX;
-		public double mTexY;
+	private class ShadowVertices {
+		public int mCount;
+		public float[] mPenumbraColor;
+		public float[] mPenumbraX;
+		public float[] mPenumbraY;
+		public float[] mPosX;
+		public float[] mPosY;
+		public float[] mPosZ;
+
+		public ShadowVertices(int capacity) {
+			mPenumbraColor = new float[capacity];
+			mPenumbraX = new float[capacity];
+			mPenumbraY = new float[capacity];
+			mPosX = new float[capacity];
+			mPosY = new float[capacity];
+			mPosZ = new float[capacity];
+		}
+
+		/**
+		 * Appends new shadow vertex positioned at given vertex and returns its
+		 * index.
+		 */
+		public int add(int vertex) {
+			if (mCount >= mPosX.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			int index = mCount++;
+			mPosX[index] = mVertices.mPosX[vertex];
+			mPosY[index] = mVertices.mPosY[vertex];
+			mPosZ[index] = mVertices.mPosZ[vertex];
+			return index;
+		}
+	}
 
-		public Vertex() {
-			mPosX = mPosY = mPosZ = mTexX = mTexY = 0;
-			mColorFactor = 1.0f;
+	/**
+	 * Holder for vertex information. Vertex attributes are stored in
+	 * primitive arrays and vertices are referenced by index.
+	 */
+	private class Vertices {
+		public int[] mColor;
+		public float[] mColorFactor;
+		public float[] mPenumbraX;
+		public float[] mPenumbraY;
+		public float[] mPosX;
+		public float[] mPosY;
+		public float[] mPosZ;
+		public float[] mTexX;
+		public float[] mTexY;
+
+		public Vertices(int capacity) {
+			mColor = new int[capacity];
+			mColorFactor = new float[capacity];
+			mPenumbraX = new float[capacity];
+			mPenumbraY = new float[capacity];
+			mPosX = new float[capacity];
+			mPosY = new float[capacity];
+			mPosZ = new float[capacity];
+			mTexX = new float[capacity];
+			mTexY = new float[capacity];
+			for (int i = 0; i < capacity; ++i) {
+				mColorFactor[i] = 1.0f;
+			}
 		}
 
-		public void rotateZ(double theta) {
-			double cos = Math.cos(theta);
-			double sin = Math.sin(theta);
-			double x = mPosX * cos + mPosY * sin;
-			double y = mPosX * -sin + mPosY * cos;
-			mPosX = x;
-			mPosY = y;
-			double px = mPenumbraX * cos + mPenumbraY * sin;
-			double py = mPenumbraX * -sin + mPenumbraY * cos;
-			mPenumbraX = px;
-			mPenumbraY = py;
+		public void rotateZ(int index, float cos, float sin) {
+			float x = mPosX[index] * cos + mPosY[index] * sin;
+			float y = mPosX[index] * -sin + mPosY[index] * cos;
+			mPosX[index] = x;
+			mPosY[index] = y;
+			float px = mPenumbraX[index] * cos + mPenumbraY[index] * sin;
+			float py = mPenumbraX[index] * -sin + mPenumbraY[index] * cos;
+			mPenumbraX[index] = px;
+			mPenumbraY[index] = py;
 		}
 
-		public void set(Vertex vertex) {
-			mPosX = vertex.mPosX;
-			mPosY = vertex.mPosY;
-			mPosZ = vertex.mPosZ;
-			mTexX = vertex.mTexX;
-			mTexY = vertex.mTexY;
-			mPenumbraX = vertex.mPenumbraX;
-			mPenumbraY = vertex.mPenumbraY;
-			mColor = vertex.mColor;
-			mColorFactor = vertex.mColorFactor;
+		public void set(int index, int src) {
+			mPosX[index] = mPosX[src];
+			mPosY[index] = mPosY[src];
+			mPosZ[index] = mPosZ[src];
+			mTexX[index] = mTexX[src];
+			mTexY[index] = mTexY[src];
+			mPenumbraX[index] = mPenumbraX[src];
+			mPenumbraY[index] = mPenumbraY[src];
+			mColor[index] = mColor[src];
+			mColorFactor[index] = mColorFactor[src];
 		}
 
-		public void translate(double dx, double dy) {
-			mPosX += dx;
-			mPosY += dy;
+		public void translate(int index, float dx, float dy) {
+			mPosX[index] += dx;
+			mPosY[index] += dy;
 		}
 	}
 }
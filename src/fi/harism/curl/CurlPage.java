@@ -35,8 +35,21 @@ public class CurlPage {
 
 	private int mColorBack;
 	private int mColorFront;
+	// Textures shared with another page, these are never recycled by this
+	// page.
+	private Bitmap mSharedTextureBack;
+	private Bitmap mSharedTextureFront;
+	// Page area in pixels and power of two flag for textures drawn through
+	// getCanvas.
+	private int mTargetHeight;
+	private boolean mTargetPowerOfTwo;
+	private int mTargetWidth;
 	private Bitmap mTextureBack;
 	private Bitmap mTextureFront;
+	// Texture coordinates for textures drawn through getCanvas, these are
+	// uploaded as they are. Null for textures given as any size.
+	private RectF mTextureRectBack;
+	private RectF mTextureRectFront;
 	private boolean mTexturesChanged;
 
 	/**
@@ -46,6 +59,62 @@ public class CurlPage {
 		reset();
 	}
 
+	/**
+	 * Returns Bitmap pool page textures are taken from and returned to. Page
+	 * providers can borrow Bitmaps given to setTexture from it, page gives
+	 * them back once done with them.
+	 */
+	public CurlBitmapPool getBitmapPool() {
+		return CurlBitmapPool.getDefault();
+	}
+
+	/**
+	 * Returns size of page textures in bytes.
+	 */
+	public int getByteCount() {
+		int bytes = 0;
+		if (mTextureFront != null) {
+			bytes += mTextureFront.getRowBytes() * mTextureFront.getHeight();
+		}
+		if (mTextureBack != null && mTextureBack != mTextureFront) {
+			bytes += mTextureBack.getRowBytes() * mTextureBack.getHeight();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns Canvas for drawing given side, or both sides, of page. Canvas
+	 * draws into a Bitmap already sized the way it's uploaded as texture and
+	 * is clipped to the page area given to PageProvider.updatePage, meaning
+	 * there's no need to copy it later on. Bitmap replaces previous texture
+	 * of given side. Canvas can be asked for only while page is being
+	 * updated by PageProvider.
+	 */
+	public Canvas getCanvas(int side) {
+		int width = Math.max(mTargetWidth, 1);
+		int height = Math.max(mTargetHeight, 1);
+		int textureWidth = width;
+		int textureHeight = height;
+		if (mTargetPowerOfTwo) {
+			textureWidth = getNextHighestPO2(width);
+			textureHeight = getNextHighestPO2(height);
+		}
+		Bitmap bitmap = getBitmapPool().obtain(textureWidth, textureHeight,
+				Bitmap.Config.ARGB_8888);
+		setTexture(bitmap, side);
+		RectF textureRect = new RectF(0f, 0f, (float) width / textureWidth,
+				(float) height / textureHeight);
+		if (side != SIDE_BACK) {
+			mTextureRectFront = textureRect;
+		}
+		if (side != SIDE_FRONT) {
+			mTextureRectBack = textureRect;
+		}
+		Canvas canvas = new Canvas(bitmap);
+		canvas.clipRect(0, 0, width, height);
+		return canvas;
+	}
+
 	/**
 	 * Getter for color.
 	 */
@@ -89,7 +158,8 @@ public class CurlPage {
 
 		// TODO: Is there another way to create a bigger Bitmap and copy
 		// original Bitmap to it more efficiently? Immutable bitmap anyone?
-		Bitmap bitmapTex = Bitmap.createBitmap(newW, newH, bitmap.getConfig());
+		Bitmap bitmapTex = getBitmapPool().obtain(newW, newH,
+				bitmap.getConfig());
 		Canvas c = new Canvas(bitmapTex);
 		c.drawBitmap(bitmap, 0, 0, null);
 
@@ -108,12 +178,29 @@ public class CurlPage {
 	 * Bitmap.
 	 */
 	public Bitmap getTexture(RectF textureRect, int side) {
-		switch (side) {
-		case SIDE_FRONT:
-			return getTexture(mTextureFront, textureRect);
-		default:
-			return getTexture(mTextureBack, textureRect);
+		return getTexture(textureRect, side, false);
+	}
+
+	/**
+	 * Getter for textures. Textures drawn through getCanvas are returned as
+	 * they are, as are any textures if non power of two textures are
+	 * supported, texture coordinates covering page area of them. Returned
+	 * Bitmap is owned by this page then and must not be recycled by caller,
+	 * see isTextureCopied. Otherwise works like getTexture(RectF, int).
+	 */
+	public Bitmap getTexture(RectF textureRect, int side, boolean npot) {
+		Bitmap bitmap = side == SIDE_FRONT ? mTextureFront : mTextureBack;
+		RectF targetRect = side == SIDE_FRONT ? mTextureRectFront
+				: mTextureRectBack;
+		if (targetRect != null) {
+			textureRect.set(targetRect);
+			return bitmap;
+		}
+		if (npot) {
+			textureRect.set(0f, 0f, 1f, 1f);
+			return bitmap;
 		}
+		return getTexture(bitmap, textureRect);
 	}
 
 	/**
@@ -132,19 +219,70 @@ public class CurlPage {
 	}
 
 	/**
-	 * Recycles and frees underlying Bitmaps.
+	 * Returns true if getTexture returns a copy of given side texture, which
+	 * caller should give back to Bitmap pool once done with it.
+	 */
+	public boolean isTextureCopied(int side, boolean npot) {
+		RectF targetRect = side == SIDE_FRONT ? mTextureRectFront
+				: mTextureRectBack;
+		return targetRect == null && !npot;
+	}
+
+	/**
+	 * Returns solid colored 1x1 Bitmap from Bitmap pool.
+	 */
+	private Bitmap obtainSolidTexture(int color) {
+		Bitmap texture = getBitmapPool().obtain(1, 1, Bitmap.Config.RGB_565);
+		texture.eraseColor(color);
+		return texture;
+	}
+
+	/**
+	 * Gives underlying Bitmaps back to Bitmap pool. Shared Bitmaps are only
+	 * released.
 	 */
 	public void recycle() {
-		if (mTextureFront != null) {
-			mTextureFront.recycle();
+		recycleTextures();
+		mTextureFront = obtainSolidTexture(mColorFront);
+		mTextureBack = obtainSolidTexture(mColorBack);
+		mTexturesChanged = false;
+	}
+
+	/**
+	 * Gives given texture back to Bitmap pool, or releases its share if it's
+	 * shared.
+	 */
+	private void recycleTexture(Bitmap texture) {
+		if (texture == null) {
+			return;
 		}
-		mTextureFront = Bitmap.createBitmap(1, 1, Bitmap.Config.RGB_565);
-		mTextureFront.eraseColor(mColorFront);
-		if (mTextureBack != null) {
-			mTextureBack.recycle();
+		if (texture == mSharedTextureFront || texture == mSharedTextureBack) {
+			getBitmapPool().unshare(texture);
+		} else {
+			getBitmapPool().release(texture);
 		}
-		mTextureBack = Bitmap.createBitmap(1, 1, Bitmap.Config.RGB_565);
-		mTextureBack.eraseColor(mColorBack);
+	}
+
+	/**
+	 * Recycles current textures and forgets shared ones.
+	 */
+	private void recycleTextures() {
+		recycleTexture(mTextureFront);
+		if (mTextureBack != mTextureFront) {
+			recycleTexture(mTextureBack);
+		}
+		mTextureFront = mTextureBack = null;
+		mTextureRectFront = mTextureRectBack = null;
+		mSharedTextureFront = mSharedTextureBack = null;
+	}
+
+	/**
+	 * Gives underlying Bitmaps back to Bitmap pool like recycle, but leaves
+	 * page without textures. Meant for pages which are discarded, page
+	 * should not be used afterwards.
+	 */
+	public void release() {
+		recycleTextures();
 		mTexturesChanged = false;
 	}
 
@@ -157,6 +295,28 @@ public class CurlPage {
 		recycle();
 	}
 
+	/**
+	 * Takes over colors and textures of given page, recycling current
+	 * textures. Given page is left without textures and should not be used
+	 * afterwards.
+	 */
+	public void set(CurlPage page) {
+		mColorBack = page.mColorBack;
+		mColorFront = page.mColorFront;
+		recycleTextures();
+		mTextureFront = page.mTextureFront;
+		mTextureBack = page.mTextureBack;
+		mTextureRectFront = page.mTextureRectFront;
+		mTextureRectBack = page.mTextureRectBack;
+		mSharedTextureFront = page.mSharedTextureFront;
+		mSharedTextureBack = page.mSharedTextureBack;
+		mTexturesChanged = page.mTexturesChanged;
+		page.mTextureFront = page.mTextureBack = null;
+		page.mTextureRectFront = page.mTextureRectBack = null;
+		page.mSharedTextureFront = page.mSharedTextureBack = null;
+		page.mTexturesChanged = false;
+	}
+
 	/**
 	 * Setter blend color.
 	 */
@@ -175,34 +335,71 @@ public class CurlPage {
 	}
 
 	/**
-	 * Setter for textures.
+	 * Takes over colors of given page and shares its textures, recycling
+	 * current textures. Shared textures are not given back to Bitmap pool by
+	 * this page and given page remains usable. It should not be changed while
+	 * this page is in use though, if it's recycled its textures are pooled
+	 * once this page lets go of them.
+	 */
+	public void share(CurlPage page) {
+		mColorBack = page.mColorBack;
+		mColorFront = page.mColorFront;
+		recycleTextures();
+		mTextureFront = mSharedTextureFront = page.mTextureFront;
+		mTextureBack = mSharedTextureBack = page.mTextureBack;
+		getBitmapPool().share(mTextureFront);
+		if (mTextureBack != mTextureFront) {
+			getBitmapPool().share(mTextureBack);
+		}
+		mTextureRectFront = page.mTextureRectFront;
+		mTextureRectBack = page.mTextureRectBack;
+		mTexturesChanged = true;
+	}
+
+	/**
+	 * Sets page area in pixels Canvas returned from getCanvas is clipped to,
+	 * and whether its Bitmap should be sized to power of two. Called before
+	 * page is handed to PageProvider.
+	 */
+	public void setTarget(int width, int height, boolean powerOfTwo) {
+		mTargetWidth = width;
+		mTargetHeight = height;
+		mTargetPowerOfTwo = powerOfTwo;
+	}
+
+	/**
+	 * Setter for textures. Page takes over given Bitmap and gives it back to
+	 * Bitmap pool once it's replaced or page is recycled.
 	 */
 	public void setTexture(Bitmap texture, int side) {
 		if (texture == null) {
-			texture = Bitmap.createBitmap(1, 1, Bitmap.Config.RGB_565);
-			if (side == SIDE_BACK) {
-				texture.eraseColor(mColorBack);
-			} else {
-				texture.eraseColor(mColorFront);
-			}
+			texture = obtainSolidTexture(side == SIDE_BACK ? mColorBack
+					: mColorFront);
 		}
+		// Texture used for both sides is pooled only once neither side uses
+		// it.
 		switch (side) {
 		case SIDE_FRONT:
-			if (mTextureFront != null)
-				mTextureFront.recycle();
+			if (mTextureFront != mTextureBack) {
+				recycleTexture(mTextureFront);
+			}
 			mTextureFront = texture;
+			mTextureRectFront = null;
 			break;
 		case SIDE_BACK:
-			if (mTextureBack != null)
-				mTextureBack.recycle();
+			if (mTextureBack != mTextureFront) {
+				recycleTexture(mTextureBack);
+			}
 			mTextureBack = texture;
+			mTextureRectBack = null;
 			break;
 		case SIDE_BOTH:
-			if (mTextureFront != null)
-				mTextureFront.recycle();
-			if (mTextureBack != null)
-				mTextureBack.recycle();
+			recycleTexture(mTextureFront);
+			if (mTextureBack != mTextureFront) {
+				recycleTexture(mTextureBack);
+			}
 			mTextureFront = mTextureBack = texture;
+			mTextureRectFront = mTextureRectBack = null;
 			break;
 		}
 		mTexturesChanged = true;
@@ -0,0 +1,190 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache for rendered page contents. Pages are identified by their index and
+ * the size they were requested with. Once total size of cached pages exceeds
+ * cache size, least recently used pages are dropped. Cached pages are shared
+ * with meshes showing them, dropped pages are released and their Bitmaps
+ * return to Bitmap pool once meshes have let go of them. Cache is not thread
+ * safe and is meant to be used from UI thread only.
+ *
+ * @author harism
+ */
+public class CurlPageCache {
+
+	// Total size of cached pages in bytes.
+	private int mBytes;
+	// Page lookup statistics.
+	private int mHits;
+	// Maximum size of cached pages in bytes.
+	private int mMaxBytes;
+	private int mMisses;
+	// Cached pages in access order, least recently used first.
+	private final LinkedHashMap<Key, CurlPage> mPages = new LinkedHashMap<Key, CurlPage>(
+			16, .75f, true);
+
+	/**
+	 * Creates cache with given maximum size in bytes.
+	 */
+	public CurlPageCache(int maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Drops every cached page.
+	 */
+	public void clear() {
+		for (CurlPage page : mPages.values()) {
+			page.release();
+		}
+		mPages.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Returns true if page is cached. Unlike getPage, this does not count as
+	 * page being used.
+	 */
+	public boolean contains(int index, int width, int height) {
+		return mPages.containsKey(new Key(index, width, height));
+	}
+
+	/**
+	 * Returns total size of cached pages in bytes.
+	 */
+	public int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Returns number of pages found from cache.
+	 */
+	public int getHits() {
+		return mHits;
+	}
+
+	/**
+	 * Returns maximum size of cached pages in bytes.
+	 */
+	public int getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	/**
+	 * Returns number of pages not found from cache.
+	 */
+	public int getMisses() {
+		return mMisses;
+	}
+
+	/**
+	 * Returns cached page or null if it hasn't been cached. Returned page is
+	 * owned by cache and its textures should be shared, not taken over.
+	 */
+	public CurlPage getPage(int index, int width, int height) {
+		CurlPage page = mPages.get(new Key(index, width, height));
+		if (page == null) {
+			++mMisses;
+		} else {
+			++mHits;
+		}
+		return page;
+	}
+
+	/**
+	 * Stores page into cache replacing previous one. Least recently used
+	 * pages are dropped if cache size is exceeded, but never the one just
+	 * added unless it alone exceeds cache size.
+	 */
+	public void putPage(int index, int width, int height, CurlPage page) {
+		Key key = new Key(index, width, height);
+		CurlPage old = mPages.put(key, page);
+		if (old != null) {
+			mBytes -= old.getByteCount();
+			if (old != page) {
+				old.release();
+			}
+		}
+		mBytes += page.getByteCount();
+		trim(page);
+	}
+
+	/**
+	 * Sets maximum size of cached pages in bytes.
+	 */
+	public void setMaxBytes(int maxBytes) {
+		mMaxBytes = maxBytes;
+		trim(null);
+	}
+
+	/**
+	 * Drops least recently used pages until cache fits in its size. Given
+	 * page is kept, unless it alone exceeds cache size. It's not released
+	 * then as caller is about to share it.
+	 */
+	private void trim(CurlPage keep) {
+		Iterator<CurlPage> iter = mPages.values().iterator();
+		while (mBytes > mMaxBytes && iter.hasNext()) {
+			CurlPage page = iter.next();
+			if (page != keep) {
+				mBytes -= page.getByteCount();
+				iter.remove();
+				page.release();
+			}
+		}
+		if (mBytes > mMaxBytes) {
+			mPages.clear();
+			mBytes = 0;
+		}
+	}
+
+	/**
+	 * Hash map key for page index and size.
+	 */
+	static class Key {
+		final int mHeight;
+		final int mIndex;
+		final int mWidth;
+
+		public Key(int index, int width, int height) {
+			mIndex = index;
+			mWidth = width;
+			mHeight = height;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return mIndex == key.mIndex && mWidth == key.mWidth
+					&& mHeight == key.mHeight;
+		}
+
+		@Override
+		public int hashCode() {
+			return (mIndex * 31 + mWidth) * 31 + mHeight;
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.util.Log;
+import fi.harism.curl.CurlView.AsyncPageProvider;
+
+/**
+ * Loads pages on background threads. Pages are requested from provider on
+ * worker threads and once ready, handed over to observer on the thread loader
+ * was created on. Load jobs are run in priority order and carry the epoch
+ * they were requested in. Jobs not requested again in a later epoch are run
+ * last, and jobs for pages outside retained range are cancelled. Apart from
+ * worker threads calling provider, loader is not thread safe and is meant to
+ * be used from UI thread only.
+ *
+ * @author harism
+ */
+public class CurlPageLoader {
+
+	// Priority for pages needed right away, smaller values are loaded first.
+	public static final int PRIORITY_VISIBLE = 0;
+	// Priority for jobs not requested in current epoch.
+	private static final int PRIORITY_STALE = Integer.MAX_VALUE;
+
+	// Delivers loaded pages to thread loader was created on.
+	private final Handler mHandler = new Handler();
+	// Current epoch and number of jobs cancelled.
+	private int mEpoch;
+	private int mJobsCancelled;
+	// Jobs queued or running by page index and size.
+	private final HashMap<CurlPageCache.Key, Job> mJobs = new HashMap<CurlPageCache.Key, Job>();
+	// Sequence number for jobs, keeps jobs of equal priority in order.
+	private int mJobSequence;
+	// Average page load time in nanoseconds and page size in bytes.
+	private long mLoadTime;
+	private final Observer mObserver;
+	private int mPageBytes;
+	// Page size in pixels and whether pages are drawn into power of two
+	// sized textures.
+	private int mPageHeight;
+	private boolean mPagePowerOfTwo;
+	private AsyncPageProvider mPageProvider;
+	private int mPageWidth;
+	// Worker threads and their job queue. Threads are started once first job
+	// is queued and stopped on release.
+	private PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<Runnable>();
+	private final int mThreadCount;
+	private ThreadPoolExecutor mWorkers;
+
+	/**
+	 * Creates loader using given number of worker threads.
+	 */
+	public CurlPageLoader(Observer observer, int threadCount) {
+		mObserver = observer;
+		mThreadCount = threadCount;
+	}
+
+	/**
+	 * Cancels given job. Job is removed from queue if it hasn't started yet
+	 * and its page is dropped once loaded otherwise.
+	 */
+	private void cancel(Job job) {
+		job.mToken.mCancelled = true;
+		mQueue.remove(job);
+		++mJobsCancelled;
+	}
+
+	/**
+	 * Cancels pages being loaded at the moment.
+	 */
+	public void clear() {
+		for (Job job : mJobs.values()) {
+			cancel(job);
+		}
+		mJobs.clear();
+	}
+
+	/**
+	 * Queues job, starting worker threads if they are not running.
+	 */
+	private void execute(Job job) {
+		if (mWorkers == null) {
+			mQueue = new PriorityBlockingQueue<Runnable>();
+			mWorkers = new ThreadPoolExecutor(mThreadCount, mThreadCount, 0L,
+					TimeUnit.MILLISECONDS, mQueue, new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "CurlPageLoader");
+							thread.setDaemon(true);
+							thread.setPriority(Thread.MIN_PRIORITY);
+							return thread;
+						}
+					});
+		}
+		mWorkers.execute(job);
+	}
+
+	/**
+	 * Returns number of load jobs cancelled.
+	 */
+	public int getJobsCancelled() {
+		return mJobsCancelled;
+	}
+
+	/**
+	 * Returns average time it takes to load a page in nanoseconds, or zero
+	 * if no pages have been loaded yet.
+	 */
+	public long getLoadTime() {
+		return mLoadTime;
+	}
+
+	/**
+	 * Returns average size of loaded pages in bytes, or zero if no pages have
+	 * been loaded yet.
+	 */
+	public int getPageBytes() {
+		return mPageBytes;
+	}
+
+	/**
+	 * Returns true if page at given index is being loaded in page size.
+	 */
+	public boolean isLoading(int index) {
+		return mJobs.containsKey(new CurlPageCache.Key(index, mPageWidth,
+				mPageHeight));
+	}
+
+	/**
+	 * Starts loading page at given index in page size with given priority,
+	 * see load(int, int, int, int).
+	 */
+	public void load(int index, int priority) {
+		load(index, mPageWidth, mPageHeight, priority);
+	}
+
+	/**
+	 * Starts loading page at given index in given size, which may be smaller
+	 * than page size, with given priority. If page is queued for loading, its
+	 * job is moved to current epoch and given priority if it's higher. Does
+	 * nothing if there is no page provider or page size is not known yet.
+	 */
+	public void load(int index, int width, int height, int priority) {
+		if (mPageProvider == null || mPageWidth <= 0 || mPageHeight <= 0
+				|| width <= 0 || height <= 0) {
+			return;
+		}
+		CurlPageCache.Key key = new CurlPageCache.Key(index, width, height);
+		Job job = mJobs.get(key);
+		if (job != null) {
+			// Job can be changed only while it's not in queue.
+			if ((job.mEpoch != mEpoch || priority < job.mPriority)
+					&& mQueue.remove(job)) {
+				job.mEpoch = mEpoch;
+				job.mPriority = Math.min(priority, job.mPriority);
+				execute(job);
+			}
+			return;
+		}
+		job = new Job(mPageProvider, key, mPagePowerOfTwo);
+		job.mEpoch = mEpoch;
+		job.mPriority = priority;
+		job.mSequence = mJobSequence++;
+		mJobs.put(key, job);
+		execute(job);
+	}
+
+	/**
+	 * Called on thread loader was created on once job has finished. Page is
+	 * null if provider failed to load it, job is removed so that page can be
+	 * requested again.
+	 */
+	private void onJobFinished(Job job, CurlPage page, long loadTime) {
+		CurlPageCache.Key key = job.mKey;
+		if (job.mToken.mCancelled) {
+			if (page != null) {
+				page.release();
+			}
+			return;
+		}
+		mJobs.remove(key);
+		if (page == null) {
+			return;
+		}
+		// Smaller pages would skew estimates made for page size.
+		if (key.mWidth != mPageWidth || key.mHeight != mPageHeight) {
+			mObserver.onPageLoaded(page, key.mIndex, key.mWidth, key.mHeight);
+			return;
+		}
+		if (mPageBytes == 0) {
+			mLoadTime = loadTime;
+			mPageBytes = page.getByteCount();
+		} else {
+			mLoadTime = (mLoadTime * 3 + loadTime) / 4;
+			mPageBytes = (mPageBytes * 3 + page.getByteCount()) / 4;
+		}
+		mObserver.onPageLoaded(page, key.mIndex, key.mWidth, key.mHeight);
+	}
+
+	/**
+	 * Cancels every job and stops worker threads. Should be called once
+	 * loader is no longer used, threads are started again if more pages are
+	 * loaded afterwards.
+	 */
+	public void release() {
+		clear();
+		if (mWorkers != null) {
+			mWorkers.shutdownNow();
+			mWorkers = null;
+		}
+	}
+
+	/**
+	 * Cancels jobs for pages with index outside given range. Jobs within
+	 * range but from earlier epoch are moved to the end of queue until they
+	 * are requested again.
+	 */
+	public void retain(int first, int last) {
+		ArrayList<Job> stale = new ArrayList<Job>();
+		Iterator<Job> jobs = mJobs.values().iterator();
+		while (jobs.hasNext()) {
+			Job job = jobs.next();
+			int index = job.mKey.mIndex;
+			if (index < first || index > last) {
+				cancel(job);
+				jobs.remove();
+			} else if (job.mEpoch != mEpoch && job.mPriority != PRIORITY_STALE
+					&& mQueue.remove(job)) {
+				stale.add(job);
+			}
+		}
+		for (Job job : stale) {
+			job.mPriority = PRIORITY_STALE;
+			execute(job);
+		}
+	}
+
+	/**
+	 * Sets current epoch. Jobs are tagged with epoch they were requested in
+	 * and CurlView starts new epoch every time current index changes.
+	 */
+	public void setEpoch(int epoch) {
+		mEpoch = epoch;
+	}
+
+	/**
+	 * Sets page provider pages are loaded from. Drops pages loaded so far.
+	 */
+	public void setPageProvider(AsyncPageProvider pageProvider) {
+		mPageProvider = pageProvider;
+		clear();
+	}
+
+	/**
+	 * Sets page size in pixels pages are loaded with, and whether textures
+	 * pages draw through CurlPage.getCanvas are sized to power of two. Cancels
+	 * pages being loaded if these change.
+	 */
+	public void setPageSize(int width, int height, boolean powerOfTwo) {
+		if (width != mPageWidth || height != mPageHeight
+				|| powerOfTwo != mPagePowerOfTwo) {
+			mPageWidth = width;
+			mPageHeight = height;
+			mPagePowerOfTwo = powerOfTwo;
+			mPageBytes = 0;
+			clear();
+		}
+	}
+
+	/**
+	 * Page load job.
+	 */
+	private class Job implements Comparable<Job>, Runnable {
+		// Job ordering, modified only while job is not in queue.
+		int mEpoch;
+		// Page index and size.
+		final CurlPageCache.Key mKey;
+		final AsyncPageProvider mPageProvider;
+		final boolean mPowerOfTwo;
+		int mPriority;
+		int mSequence;
+		final Token mToken = new Token();
+
+		public Job(AsyncPageProvider pageProvider, CurlPageCache.Key key,
+				boolean powerOfTwo) {
+			mPageProvider = pageProvider;
+			mKey = key;
+			mPowerOfTwo = powerOfTwo;
+		}
+
+		@Override
+		public int compareTo(Job job) {
+			if (mPriority != job.mPriority) {
+				return mPriority < job.mPriority ? -1 : 1;
+			}
+			// Newer epoch first, otherwise in request order.
+			if (mEpoch != job.mEpoch) {
+				return mEpoch > job.mEpoch ? -1 : 1;
+			}
+			return mSequence - job.mSequence;
+		}
+
+		@Override
+		public void run() {
+			if (mToken.mCancelled) {
+				return;
+			}
+			long startTime = System.nanoTime();
+			CurlPage page = new CurlPage();
+			try {
+				page.setTarget(mKey.mWidth, mKey.mHeight, mPowerOfTwo);
+				mPageProvider.updatePage(page, mKey.mWidth, mKey.mHeight,
+						mKey.mIndex, mToken);
+			} catch (RuntimeException ex) {
+				Log.w("CurlPageLoader", "Loading page " + mKey.mIndex
+						+ " failed", ex);
+				page.release();
+				page = null;
+			}
+			// Job is always finished on loader thread, failed or not.
+			final CurlPage result = page;
+			final long loadTime = System.nanoTime() - startTime;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onJobFinished(Job.this, result, loadTime);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Observer for loaded pages.
+	 */
+	public interface Observer {
+		/**
+		 * Called on thread loader was created on once page at given index has
+		 * been loaded with given size. Page is handed over to observer.
+		 */
+		public void onPageLoaded(CurlPage page, int index, int width,
+				int height);
+	}
+
+	/**
+	 * Cancellation token given to asynchronous page provider. Provider can
+	 * poll it while rendering page and return early once page is no longer
+	 * needed, page is dropped in that case.
+	 */
+	public static class Token {
+		volatile boolean mCancelled;
+
+		/**
+		 * Returns true if loading page has been cancelled.
+		 */
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+/**
+ * Pointer position predictor. Tracks pointer velocity and acceleration from
+ * given samples and extrapolates position into near future. Both are
+ * smoothed with exponential filters as differences between samples only
+ * milliseconds apart are mostly touch jitter, and predicted distance is
+ * limited. All times are given as parameters, which makes predictor
+ * independent from any clock.
+ *
+ * @author harism
+ */
+public class CurlPredictor {
+
+	// Maximum distance position is extrapolated in view units.
+	private static final float PREDICTION_DISTANCE_MAX = .15f;
+	// Time constants of acceleration and velocity filters in seconds.
+	private static final float ACCEL_SMOOTHING = .05f;
+	private static final float VELOCITY_SMOOTHING = .02f;
+
+	// Acceleration in view units per second squared.
+	private float mAccelX, mAccelY;
+	// Latest sample position, event time in milliseconds and time sample was
+	// received in nanoseconds.
+	private float mPosX, mPosY;
+	private long mReceiveTime;
+	private int mSampleCount;
+	private long mSampleTime;
+	// Velocity in view units per second.
+	private float mVelX, mVelY;
+
+	/**
+	 * Adds pointer sample. Event time is used for calculating velocity and
+	 * acceleration, receive time tells when sample became available and
+	 * prediction is done relative to it.
+	 */
+	public void addSample(float x, float y, long eventTimeMillis,
+			long receiveTimeNanos) {
+		if (mSampleCount > 0) {
+			float dt = (eventTimeMillis - mSampleTime) / 1000f;
+			// Samples sharing event time only update position.
+			if (dt <= 0f) {
+				mPosX = x;
+				mPosY = y;
+				mReceiveTime = receiveTimeNanos;
+				return;
+			}
+			float velX = (x - mPosX) / dt;
+			float velY = (y - mPosY) / dt;
+			if (mSampleCount > 1) {
+				// Filter weights depend on sample interval so that irregular
+				// sample rate doesn't change smoothing.
+				float velWeight = dt / (VELOCITY_SMOOTHING + dt);
+				velX = mVelX + (velX - mVelX) * velWeight;
+				velY = mVelY + (velY - mVelY) * velWeight;
+				float accelWeight = dt / (ACCEL_SMOOTHING + dt);
+				mAccelX += ((velX - mVelX) / dt - mAccelX) * accelWeight;
+				mAccelY += ((velY - mVelY) / dt - mAccelY) * accelWeight;
+			}
+			mVelX = velX;
+			mVelY = velY;
+		}
+		mPosX = x;
+		mPosY = y;
+		mSampleTime = eventTimeMillis;
+		mReceiveTime = receiveTimeNanos;
+		++mSampleCount;
+	}
+
+	/**
+	 * Predicts pointer position at given time plus lookahead. Predicted
+	 * position is at most PREDICTION_DISTANCE_MAX away from latest sample
+	 * and clamped within bounds, which can be given as view
+	 * coordinates with top greater than bottom. If latest sample lies outside
+	 * bounds, they are extended to contain it.
+	 */
+	public void predict(long timeNanos, float lookaheadMillis, RectF bounds,
+			PointF out) {
+		float t = (timeNanos - mReceiveTime) / 1000000000f + lookaheadMillis
+				/ 1000f;
+		t = Math.max(t, 0f);
+		float dx = mVelX * t + .5f * mAccelX * t * t;
+		float dy = mVelY * t + .5f * mAccelY * t * t;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy);
+		if (distance > PREDICTION_DISTANCE_MAX) {
+			dx *= PREDICTION_DISTANCE_MAX / distance;
+			dy *= PREDICTION_DISTANCE_MAX / distance;
+		}
+		out.x = mPosX + dx;
+		out.y = mPosY + dy;
+		if (bounds != null) {
+			float minX = Math.min(Math.min(bounds.left, bounds.right), mPosX);
+			float maxX = Math.max(Math.max(bounds.left, bounds.right), mPosX);
+			float minY = Math.min(Math.min(bounds.top, bounds.bottom), mPosY);
+			float maxY = Math.max(Math.max(bounds.top, bounds.bottom), mPosY);
+			out.x = Math.max(minX, Math.min(maxX, out.x));
+			out.y = Math.max(minY, Math.min(maxY, out.y));
+		}
+	}
+
+	/**
+	 * Forgets all samples. Should be called once new gesture starts.
+	 */
+	public void reset() {
+		mSampleCount = 0;
+		mAccelX = mAccelY = 0f;
+		mVelX = mVelY = 0f;
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+/**
+ * Decides how many pages are prefetched ahead and behind current page. Policy
+ * learns reading direction from curls started and page turns, and reading
+ * pace from time between page turns. Pages are divided between directions by
+ * their likelihood and the likely direction is extended so that it covers
+ * pages turned while one page is loaded. All times are given as parameters,
+ * which makes policy independent from any clock.
+ *
+ * @author harism
+ */
+public class CurlPrefetchPolicy {
+
+	// Page turns further apart than this are not considered sequential
+	// reading, time is in nanoseconds.
+	private static final long FLIP_INTERVAL_MAX = 5000000000L;
+
+	// Number of pages to prefetch ahead and behind.
+	private int mAhead;
+	private int mBehind;
+	// Reading direction in range [-1, 1], positive being forward.
+	private float mDirection;
+	// Average time between page turns in nanoseconds, zero if unknown, and
+	// time of latest page turn.
+	private long mFlipInterval;
+	private long mFlipTime;
+	private boolean mFlipTimeValid;
+
+	/**
+	 * Returns number of pages to prefetch ahead of visible pages.
+	 */
+	public int getAhead() {
+		return mAhead;
+	}
+
+	/**
+	 * Returns number of pages to prefetch behind visible pages.
+	 */
+	public int getBehind() {
+		return mBehind;
+	}
+
+	/**
+	 * Returns true if reading direction is forward.
+	 */
+	public boolean isForward() {
+		return mDirection >= 0f;
+	}
+
+	/**
+	 * Should be called once curl starts. Direction is positive for curls
+	 * towards next page and negative towards previous one. Curl may still be
+	 * cancelled so it only nudges reading direction.
+	 */
+	public void onCurl(int direction) {
+		mDirection += (Math.signum(direction) - mDirection) * .25f;
+	}
+
+	/**
+	 * Should be called once current index changes. Only single page turns are
+	 * considered reading, others are jumps which reset reading pace.
+	 */
+	public void onIndexChanged(int delta, long timeNanos) {
+		if (delta != 1 && delta != -1) {
+			mFlipInterval = 0;
+			mFlipTimeValid = false;
+			return;
+		}
+		mDirection += (delta - mDirection) * .5f;
+		long interval = timeNanos - mFlipTime;
+		if (!mFlipTimeValid || interval > FLIP_INTERVAL_MAX) {
+			mFlipInterval = 0;
+		} else if (mFlipInterval == 0) {
+			mFlipInterval = interval;
+		} else {
+			mFlipInterval = (mFlipInterval * 3 + interval) / 4;
+		}
+		mFlipTime = timeNanos;
+		mFlipTimeValid = true;
+	}
+
+	/**
+	 * Recalculates number of pages to prefetch. Window is the number of pages
+	 * prefetched in total at slow pace, maxPages the number of pages memory
+	 * budget allows and loadTime average page load time in nanoseconds.
+	 */
+	public void update(int window, int maxPages, long loadTime) {
+		// Pages likely turned while one page is being loaded.
+		int reach = 1;
+		if (mFlipInterval > 0 && loadTime > 0) {
+			reach += (int) ((loadTime + mFlipInterval - 1) / mFlipInterval);
+		}
+
+		// Window is divided by direction likelihood, keeping at least one
+		// page on both sides.
+		float forward = (1f + mDirection) / 2f;
+		int ahead = Math.max(Math.round(window * forward), 1);
+		int behind = Math.max(window - ahead, 1);
+		if (isForward()) {
+			ahead = Math.max(ahead, reach);
+		} else {
+			behind = Math.max(behind, reach);
+		}
+
+		// Memory budget trims pages from less likely direction first.
+		int excess = Math.max(ahead + behind - Math.max(maxPages, 0), 0);
+		if (isForward()) {
+			int trim = Math.min(excess, behind);
+			behind -= trim;
+			ahead -= excess - trim;
+		} else {
+			int trim = Math.min(excess, ahead);
+			ahead -= trim;
+			behind -= excess - trim;
+		}
+		mAhead = ahead;
+		mBehind = behind;
+	}
+
+}
@@ -16,7 +16,8 @@
 
 package fi.harism.curl;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -24,8 +25,10 @@ import javax.microedition.khronos.opengles.GL10;
 import android.graphics.Color;
 import android.graphics.PointF;
 import android.graphics.RectF;
+import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
+import android.opengl.Matrix;
 
 /**
  * Actual renderer class.
@@ -34,6 +37,16 @@ import android.opengl.GLU;
  */
 public class CurlRenderer implements GLSurfaceView.Renderer {
 
+	// Command types.
+	private static final int COMMAND_ADD_MESH = 1;
+	private static final int COMMAND_CURL = 2;
+	private static final int COMMAND_RELEASE_MESH = 3;
+	private static final int COMMAND_REMOVE_MESH = 4;
+	private static final int COMMAND_RESET = 5;
+	private static final int COMMAND_RUNNABLE = 6;
+	private static final int COMMAND_SET_FLIP_TEXTURE = 7;
+	private static final int COMMAND_SET_PAGE = 8;
+	private static final int COMMAND_SET_RECT = 9;
 	// Constant for requesting left page rect.
 	public static final int PAGE_LEFT = 1;
 	// Constant for requesting right page rect.
@@ -43,16 +56,32 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	public static final int SHOW_TWO_PAGES = 2;
 	// Set to true for checking quickly how perspective projection looks.
 	private static final boolean USE_PERSPECTIVE_PROJECTION = false;
-	// Background fill color.
+	// Background fill color, accessed from rendering thread only.
 	private int mBackgroundColor;
-	// Curl meshes used for static and dynamic rendering.
-	private Vector<CurlMesh> mCurlMeshes;
+	// Vertex bytes uploaded during latest frame.
+	private int mBytesUploaded;
+	// Queued commands as a stack, latest command being first. Any thread may
+	// push commands, rendering thread takes them all at once.
+	private final AtomicReference<Command> mCommands = new AtomicReference<Command>();
+	// Number of commands dropped as they were overridden by the next one.
+	// Written on rendering thread only, read from UI thread.
+	private volatile int mCommandsCoalesced;
+	// Curl meshes used for static and dynamic rendering, and every mesh added
+	// and not released since, drawn or not. Accessed from rendering thread
+	// only.
+	private ArrayList<CurlMesh> mCurlMeshes;
+	private final ArrayList<CurlMesh> mCurlMeshesAdded = new ArrayList<CurlMesh>();
+	// Shader used for rendering pages if GL context is OpenGL ES 2.0 or later.
+	// Shader is kept over context re-creation, only its program is not.
+	private CurlShader mCurlShader;
+	// Margins and view mode, accessed from rendering thread only.
 	private RectF mMargins = new RectF();
 	private CurlRenderer.Observer mObserver;
-	// Page rectangles.
+	// Page rectangles. Calculated on rendering thread.
 	private RectF mPageRectLeft;
 	private RectF mPageRectRight;
-	// View mode.
+	// Textures shared by page meshes.
+	private final CurlTexturePool mTexturePool = new CurlTexturePool();
 	private int mViewMode = SHOW_ONE_PAGE;
 	// Screen size.
 	private int mViewportWidth, mViewportHeight;
@@ -64,17 +93,144 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	 */
 	public CurlRenderer(CurlRenderer.Observer observer) {
 		mObserver = observer;
-		mCurlMeshes = new Vector<CurlMesh>();
+		mCurlMeshes = new ArrayList<CurlMesh>();
 		mPageRectLeft = new RectF();
 		mPageRectRight = new RectF();
 	}
 
 	/**
-	 * Adds CurlMesh to this renderer.
+	 * Adds CurlMesh to this renderer. Like all mesh operations on renderer, it
+	 * is queued and takes place on rendering thread before next frame is
+	 * drawn.
 	 */
-	public synchronized void addCurlMesh(CurlMesh mesh) {
-		removeCurlMesh(mesh);
-		mCurlMeshes.add(mesh);
+	public void addCurlMesh(CurlMesh mesh) {
+		queueCommand(new Command(COMMAND_ADD_MESH, mesh));
+	}
+
+	/**
+	 * Applies queued commands in the order they were queued. Curl or reset
+	 * followed by another curl or reset for the same mesh is skipped as its
+	 * result would be overwritten right away.
+	 */
+	private void applyCommands(GL10 gl) {
+		Command first = null;
+		Command command = mCommands.getAndSet(null);
+		while (command != null) {
+			Command next = command.mNext;
+			command.mNext = first;
+			first = command;
+			command = next;
+		}
+
+		for (command = first; command != null; command = command.mNext) {
+			Command next = command.mNext;
+			if (isGeometryCommand(command) && next != null
+					&& isGeometryCommand(next) && next.mMesh == command.mMesh) {
+				++mCommandsCoalesced;
+				continue;
+			}
+			CurlMesh mesh = command.mMesh;
+			switch (command.mType) {
+			case COMMAND_ADD_MESH:
+				while (mCurlMeshes.remove(mesh))
+					;
+				mCurlMeshes.add(mesh);
+				if (!mCurlMeshesAdded.contains(mesh)) {
+					mCurlMeshesAdded.add(mesh);
+				}
+				mesh.setTexturePool(mTexturePool);
+				mesh.setShaderCurl(mCurlShader != null);
+				break;
+			case COMMAND_CURL:
+				mesh.curl(command.mCurlPos, command.mCurlDir, command.mRadius,
+						command.mKeyframeCache, command.mKeyframeAnimation,
+						command.mKeyframe, command.mKeyframeCount);
+				break;
+			case COMMAND_RELEASE_MESH:
+				while (mCurlMeshes.remove(mesh))
+					;
+				mCurlMeshesAdded.remove(mesh);
+				mesh.release(gl);
+				break;
+			case COMMAND_REMOVE_MESH:
+				while (mCurlMeshes.remove(mesh))
+					;
+				break;
+			case COMMAND_RESET:
+				mesh.reset();
+				break;
+			case COMMAND_RUNNABLE:
+				command.mRunnable.run();
+				break;
+			case COMMAND_SET_FLIP_TEXTURE:
+				mesh.setFlipTexture(command.mFlipTexture);
+				break;
+			case COMMAND_SET_PAGE:
+				mesh.setTexturePage(command.mPage);
+				break;
+			case COMMAND_SET_RECT:
+				mesh.setRect(command.mRect);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Queues curl for given mesh, see CurlMesh.curl. Given points are copied.
+	 */
+	public void curl(CurlMesh mesh, PointF curlPos, PointF curlDir,
+			double radius) {
+		curl(mesh, curlPos, curlDir, radius, null, null, 0, 0);
+	}
+
+	/**
+	 * Queues curl for given mesh as animation keyframe, see CurlMesh.curl.
+	 * Given points are copied, animation key is not.
+	 */
+	public void curl(CurlMesh mesh, PointF curlPos, PointF curlDir,
+			double radius, CurlKeyframeCache cache, int[] animation,
+			int keyframe, int keyframeCount) {
+		Command command = new Command(COMMAND_CURL, mesh);
+		command.mCurlPos = new PointF(curlPos.x, curlPos.y);
+		command.mCurlDir = new PointF(curlDir.x, curlDir.y);
+		command.mRadius = radius;
+		command.mKeyframeCache = cache;
+		command.mKeyframeAnimation = animation;
+		command.mKeyframe = keyframe;
+		command.mKeyframeCount = keyframeCount;
+		queueCommand(command);
+	}
+
+	/**
+	 * Returns number of vertex bytes uploaded to GL during latest frame.
+	 */
+	public int getBytesUploaded() {
+		return mBytesUploaded;
+	}
+
+	/**
+	 * Returns size of texture storage allocated for pages in bytes.
+	 */
+	public int getTextureBytes() {
+		return mTexturePool.getBytes();
+	}
+
+	/**
+	 * Returns fraction of page texture uploads which reused existing texture
+	 * storage.
+	 */
+	public float getTextureReuseRate() {
+		int uploads = mTexturePool.getUploads();
+		return uploads > 0 ? (float) mTexturePool.getUploadsReused() / uploads
+				: 0f;
+	}
+
+	/**
+	 * Returns number of queued curl and reset commands skipped because next
+	 * command replaced their result.
+	 */
+	public int getCommandsCoalesced() {
+		return mCommandsCoalesced;
 	}
 
 	/**
@@ -90,15 +246,36 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 		return null;
 	}
 
+	/**
+	 * Returns true for commands which replace mesh geometry completely.
+	 */
+	private static boolean isGeometryCommand(Command command) {
+		return command.mType == COMMAND_CURL || command.mType == COMMAND_RESET;
+	}
+
 	@Override
-	public synchronized void onDrawFrame(GL10 gl) {
+	public void onDrawFrame(GL10 gl) {
 
 		mObserver.onDrawFrame();
+		applyCommands(gl);
+
+		float red = Color.red(mBackgroundColor) / 255f;
+		float green = Color.green(mBackgroundColor) / 255f;
+		float blue = Color.blue(mBackgroundColor) / 255f;
+		float alpha = Color.alpha(mBackgroundColor) / 255f;
+
+		if (mCurlShader != null) {
+			GLES20.glClearColor(red, green, blue, alpha);
+			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT
+					| GLES20.GL_DEPTH_BUFFER_BIT);
+			for (int i = 0; i < mCurlMeshes.size(); ++i) {
+				mCurlMeshes.get(i).onDrawFrame(gl, mCurlShader);
+			}
+			mBytesUploaded = 0;
+			return;
+		}
 
-		gl.glClearColor(Color.red(mBackgroundColor) / 255f,
-				Color.green(mBackgroundColor) / 255f,
-				Color.blue(mBackgroundColor) / 255f,
-				Color.alpha(mBackgroundColor) / 255f);
+		gl.glClearColor(red, green, blue, alpha);
 		gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
 		gl.glLoadIdentity();
 
@@ -106,14 +283,25 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 			gl.glTranslatef(0, 0, -6f);
 		}
 
+		int bytesUploaded = 0;
 		for (int i = 0; i < mCurlMeshes.size(); ++i) {
-			mCurlMeshes.get(i).onDrawFrame(gl);
+			CurlMesh mesh = mCurlMeshes.get(i);
+			mesh.onDrawFrame(gl);
+			bytesUploaded += mesh.getUploadedBytes();
 		}
+		mBytesUploaded = bytesUploaded;
 	}
 
 	@Override
 	public void onSurfaceChanged(GL10 gl, int width, int height) {
-		gl.glViewport(0, 0, width, height);
+		if (mCurlShader != null) {
+			GLES20.glViewport(0, 0, width, height);
+		} else {
+			gl.glViewport(0, 0, width, height);
+		}
+		// Page size changes and released textures are unlikely to fit pages
+		// anymore.
+		mTexturePool.clear(gl);
 		mViewportWidth = width;
 		mViewportHeight = height;
 
@@ -124,6 +312,24 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 		mViewRect.right = ratio;
 		updatePageRects();
 
+		if (mCurlShader != null) {
+			float[] projectionMatrix = new float[16];
+			if (USE_PERSPECTIVE_PROJECTION) {
+				// Same as gluPerspective with 20 degree field of view.
+				float top = .1f * (float) Math.tan(Math.toRadians(10));
+				Matrix.frustumM(projectionMatrix, 0, -top * ratio, top * ratio,
+						-top, top, .1f, 100f);
+				Matrix.translateM(projectionMatrix, 0, 0, 0, -6f);
+			} else {
+				// Leave room for curl in z direction.
+				Matrix.orthoM(projectionMatrix, 0, mViewRect.left,
+						mViewRect.right, mViewRect.bottom, mViewRect.top, -10f,
+						10f);
+			}
+			mCurlShader.setProjectionMatrix(projectionMatrix);
+			return;
+		}
+
 		gl.glMatrixMode(GL10.GL_PROJECTION);
 		gl.glLoadIdentity();
 		if (USE_PERSPECTIVE_PROJECTION) {
@@ -139,6 +345,44 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 
 	@Override
 	public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+		// Textures and buffer objects were lost with previous context.
+		mTexturePool.reset();
+		for (int i = 0; i < mCurlMeshesAdded.size(); ++i) {
+			mCurlMeshesAdded.get(i).resetTexture();
+			mCurlMeshesAdded.get(i).resetBufferObjects();
+		}
+		// OpenGL ES 2.0 and later version strings are of form "OpenGL ES 2.0"
+		// whereas 1.x ones are "OpenGL ES-CM 1.1".
+		String version = gl.glGetString(GL10.GL_VERSION);
+		if (version != null && version.startsWith("OpenGL ES ")) {
+			if (mCurlShader == null) {
+				mCurlShader = new CurlShader();
+			}
+			// OpenGL ES 2.0 supports non power of two textures as long as
+			// they are clamped and have no mipmaps, which page textures are.
+			if (mCurlShader.onSurfaceCreated()) {
+				mTexturePool.setNpotSupported(true);
+				mTexturePool.setGles20(true);
+				setShaderCurl(true);
+				mObserver.onSurfaceCreated();
+				return;
+			}
+			// Shader failed to build, pages are left to fixed function
+			// rendering. It draws nothing on OpenGL ES 2.0 context but keeps
+			// the view alive rather than killing rendering thread.
+		}
+		mCurlShader = null;
+		mTexturePool.setGles20(false);
+		setShaderCurl(false);
+		// On OpenGL ES 1.x it takes an extension. Limited Apple one is enough
+		// for clamped textures without mipmaps too.
+		String extensions = gl.glGetString(GL10.GL_EXTENSIONS);
+		mTexturePool.setNpotSupported(extensions != null
+				&& (extensions.contains("GL_OES_texture_npot")
+						|| extensions.contains("GL_ARB_texture_non_power_of_two")
+						|| extensions
+								.contains("GL_APPLE_texture_2D_limited_npot")));
+
 		gl.glClearColor(0f, 0f, 0f, 1f);
 		gl.glShadeModel(GL10.GL_SMOOTH);
 		gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
@@ -151,46 +395,149 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 		mObserver.onSurfaceCreated();
 	}
 
+	/**
+	 * Returns true if GL context supports non power of two sized textures.
+	 * Valid once surface has been created.
+	 */
+	public boolean isNpotSupported() {
+		return mTexturePool.isNpotSupported();
+	}
+
+	/**
+	 * Returns true if pages are rendered using CurlShader. Shader rendering
+	 * draws no shadows.
+	 */
+	public boolean isShaderRendering() {
+		return mCurlShader != null;
+	}
+
+	/**
+	 * Queues given command. Lock free, commands are pushed into a stack which
+	 * is reversed once taken by rendering thread.
+	 */
+	private void queueCommand(Command command) {
+		do {
+			command.mNext = mCommands.get();
+		} while (!mCommands.compareAndSet(command.mNext, command));
+	}
+
+	/**
+	 * Queues given runnable to be run on rendering thread in order with other
+	 * commands. Meant for rarely changing mesh settings.
+	 */
+	public void queueRunnable(Runnable runnable) {
+		Command command = new Command(COMMAND_RUNNABLE, null);
+		command.mRunnable = runnable;
+		queueCommand(command);
+	}
+
+	/**
+	 * Removes CurlMesh from this renderer and releases its GL resources,
+	 * textures go back to texture pool. Mesh should not be used afterwards.
+	 */
+	public void releaseCurlMesh(CurlMesh mesh) {
+		queueCommand(new Command(COMMAND_RELEASE_MESH, mesh));
+	}
+
 	/**
 	 * Removes CurlMesh from this renderer.
 	 */
-	public synchronized void removeCurlMesh(CurlMesh mesh) {
-		while (mCurlMeshes.remove(mesh))
-			;
+	public void removeCurlMesh(CurlMesh mesh) {
+		queueCommand(new Command(COMMAND_REMOVE_MESH, mesh));
+	}
+
+	/**
+	 * Queues reset for given mesh, see CurlMesh.reset.
+	 */
+	public void reset(CurlMesh mesh) {
+		queueCommand(new Command(COMMAND_RESET, mesh));
+	}
+
+	/**
+	 * Change background/clear color. Change is queued like mesh operations.
+	 */
+	public void setBackgroundColor(final int color) {
+		queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				mBackgroundColor = color;
+			}
+		});
 	}
 
 	/**
-	 * Change background/clear color.
+	 * Queues texture flipping change for given mesh, see
+	 * CurlMesh.setFlipTexture.
 	 */
-	public void setBackgroundColor(int color) {
-		mBackgroundColor = color;
+	public void setFlipTexture(CurlMesh mesh, boolean flipTexture) {
+		Command command = new Command(COMMAND_SET_FLIP_TEXTURE, mesh);
+		command.mFlipTexture = flipTexture;
+		queueCommand(command);
 	}
 
 	/**
 	 * Set margins or padding. Note: margins are proportional. Meaning a value
-	 * of .1f will produce a 10% margin.
+	 * of .1f will produce a 10% margin. Change is queued like mesh operations
+	 * and page rects are recalculated on rendering thread.
 	 */
-	public synchronized void setMargins(float left, float top, float right,
-			float bottom) {
-		mMargins.left = left;
-		mMargins.top = top;
-		mMargins.right = right;
-		mMargins.bottom = bottom;
-		updatePageRects();
+	public void setMargins(final float left, final float top,
+			final float right, final float bottom) {
+		queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				mMargins.set(left, top, right, bottom);
+				updatePageRects();
+			}
+		});
+	}
+
+	/**
+	 * Queues page content handover for given mesh. Colors and textures are
+	 * moved from given page into mesh's texture page, given page should not
+	 * be used after calling this method. Mesh is rebuilt if page colors
+	 * differ from previous ones.
+	 */
+	public void setPage(CurlMesh mesh, CurlPage page) {
+		Command command = new Command(COMMAND_SET_PAGE, mesh);
+		command.mPage = page;
+		queueCommand(command);
+	}
+
+	/**
+	 * Queues page rect change for given mesh, see CurlMesh.setRect. Given rect
+	 * is copied.
+	 */
+	public void setRect(CurlMesh mesh, RectF rect) {
+		Command command = new Command(COMMAND_SET_RECT, mesh);
+		command.mRect = new RectF(rect);
+		queueCommand(command);
+	}
+
+	/**
+	 * Sets shader curl mode of every mesh added to renderer.
+	 */
+	private void setShaderCurl(boolean shaderCurl) {
+		for (int i = 0; i < mCurlMeshesAdded.size(); ++i) {
+			mCurlMeshesAdded.get(i).setShaderCurl(shaderCurl);
+		}
 	}
 
 	/**
 	 * Sets visible page count to one or two. Should be either SHOW_ONE_PAGE or
-	 * SHOW_TWO_PAGES.
+	 * SHOW_TWO_PAGES. Change is queued like mesh operations and page rects
+	 * are recalculated on rendering thread.
 	 */
-	public synchronized void setViewMode(int viewmode) {
-		if (viewmode == SHOW_ONE_PAGE) {
-			mViewMode = viewmode;
-			updatePageRects();
-		} else if (viewmode == SHOW_TWO_PAGES) {
-			mViewMode = viewmode;
-			updatePageRects();
+	public void setViewMode(final int viewmode) {
+		if (viewmode != SHOW_ONE_PAGE && viewmode != SHOW_TWO_PAGES) {
+			return;
 		}
+		queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				mViewMode = viewmode;
+				updatePageRects();
+			}
+		});
 	}
 
 	/**
@@ -241,6 +588,33 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 		}
 	}
 
+	/**
+	 * Mesh operation queued for rendering thread. Values are set before
+	 * command is queued and never modified afterwards, except for the link to
+	 * next command.
+	 */
+	private static class Command {
+		public PointF mCurlDir;
+		public PointF mCurlPos;
+		public boolean mFlipTexture;
+		public int mKeyframe;
+		public int[] mKeyframeAnimation;
+		public CurlKeyframeCache mKeyframeCache;
+		public int mKeyframeCount;
+		public final CurlMesh mMesh;
+		public Command mNext;
+		public CurlPage mPage;
+		public double mRadius;
+		public RectF mRect;
+		public Runnable mRunnable;
+		public final int mType;
+
+		public Command(int type, CurlMesh mesh) {
+			mType = type;
+			mMesh = mesh;
+		}
+	}
+
 	/**
 	 * Observer for waiting render engine/state updates.
 	 */
@@ -253,13 +627,15 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 
 		/**
 		 * Called once page size is changed. Width and height tell the page size
-		 * in pixels making it possible to update textures accordingly.
+		 * in pixels making it possible to update textures accordingly. Called
+		 * on rendering thread.
 		 */
 		public void onPageSizeChanged(int width, int height);
 
 		/**
 		 * Called from onSurfaceCreated to enable texture re-initialization etc
-		 * what needs to be done when this happens.
+		 * what needs to be done when this happens. Meshes added to renderer
+		 * have forgotten their textures and buffer objects already.
 		 */
 		public void onSurfaceCreated();
 	}
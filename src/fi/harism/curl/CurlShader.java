@@ -0,0 +1,328 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * OpenGL ES 2.0 page renderer doing curl deformation in vertex shader. Page is
+ * a fixed grid which is created once, per frame only curl parameters from
+ * CurlDeformer are passed to shader as uniforms. Shader math must be kept in
+ * sync with CurlDeformer.deform. Unlike fixed function rendering in CurlMesh,
+ * shader draws no drop or self shadows, curled part is only darkened towards
+ * its back side.
+ *
+ * @author harism
+ */
+public class CurlShader {
+
+	// Default grid size, number of quads per page side.
+	public static final int DEFAULT_GRID_SIZE = 64;
+
+	private static final String SHADER_FRAGMENT = ""
+			+ "precision mediump float;\n"
+			+ "uniform sampler2D sTextureFront;\n"
+			+ "uniform sampler2D sTextureBack;\n"
+			+ "uniform vec4 uColorFront;\n"
+			+ "uniform vec4 uColorBack;\n"
+			+ "uniform vec2 uTextureRectFront;\n"
+			+ "uniform vec2 uTextureRectBack;\n"
+			+ "uniform bool uFlipTexture;\n"
+			+ "varying vec2 vTexCoord;\n"
+			+ "varying float vColorFactor;\n"
+			+ "void main() {\n"
+			+ "  vec4 color;\n"
+			+ "  vec4 tex;\n"
+			// Side is chosen per triangle, interpolating it across the fold
+			// would blend sides together.
+			+ "  if (gl_FrontFacing != uFlipTexture) {\n"
+			+ "    color = uColorFront;\n"
+			+ "    tex = texture2D(sTextureFront, vTexCoord * uTextureRectFront);\n"
+			+ "  } else {\n"
+			+ "    color = uColorBack;\n"
+			+ "    tex = texture2D(sTextureBack, vTexCoord * uTextureRectBack);\n"
+			+ "  }\n"
+			+ "  color.rgb *= vColorFactor;\n"
+			// Same as blending texture over page color.
+			+ "  gl_FragColor = vec4(mix(color.rgb, tex.rgb * color.rgb, tex.a * color.a), 1.0);\n"
+			+ "}\n";
+
+	private static final String SHADER_VERTEX = ""
+			+ "uniform mat4 uProjectionMatrix;\n"
+			+ "uniform vec4 uRect;\n"
+			+ "uniform vec2 uCurlPos;\n"
+			+ "uniform vec2 uCurlDir;\n"
+			+ "uniform float uRadius;\n"
+			+ "uniform bool uFlipTexture;\n"
+			+ "attribute vec2 aPosition;\n"
+			+ "varying vec2 vTexCoord;\n"
+			+ "varying float vColorFactor;\n"
+			+ "void main() {\n"
+			+ "  vec2 pos = uRect.xy + (uRect.zw - uRect.xy) * aPosition;\n"
+			+ "  vec2 d = pos - uCurlPos;\n"
+			+ "  float x = d.x * uCurlDir.x + d.y * uCurlDir.y;\n"
+			+ "  float y = d.y * uCurlDir.x - d.x * uCurlDir.y;\n"
+			+ "  float z = 0.0;\n"
+			+ "  float colorFactor = 1.0;\n"
+			+ "  float curlLength = 3.14159265 * uRadius;\n"
+			+ "  if (x < 0.0) {\n"
+			+ "    if (x <= -curlLength) {\n"
+			+ "      x = -(curlLength + x);\n"
+			+ "      z = 2.0 * uRadius;\n"
+			+ "    } else {\n"
+			+ "      float angle = x / uRadius;\n"
+			+ "      float s = sin(angle);\n"
+			+ "      x = uRadius * s;\n"
+			+ "      z = uRadius * (1.0 - cos(angle));\n"
+			+ "      colorFactor = 0.1 + 0.9 * sqrt(s + 1.0);\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "  pos.x = uCurlPos.x + x * uCurlDir.x - y * uCurlDir.y;\n"
+			+ "  pos.y = uCurlPos.y + x * uCurlDir.y + y * uCurlDir.x;\n"
+			+ "  gl_Position = uProjectionMatrix * vec4(pos, z, 1.0);\n"
+			+ "  vTexCoord = vec2(uFlipTexture ? 1.0 - aPosition.x : aPosition.x, aPosition.y);\n"
+			+ "  vColorFactor = colorFactor;\n"
+			+ "}\n";
+
+	// Grid vertices and triangle indices.
+	private FloatBuffer mBufGrid;
+	private ShortBuffer mBufIndices;
+	private int mIndexCount;
+	// Shader program and its attribute and uniform locations.
+	private int mProgram;
+	private int maPosition;
+	private float[] mProjectionMatrix = new float[16];
+	private int muColorBack;
+	private int muColorFront;
+	private int muCurlDir;
+	private int muCurlPos;
+	private int muFlipTexture;
+	private int muProjectionMatrix;
+	private int muRadius;
+	private int muRect;
+	private int muTextureBack;
+	private int muTextureFront;
+	private int muTextureRectBack;
+	private int muTextureRectFront;
+
+	/**
+	 * Constructor for grid of DEFAULT_GRID_SIZE.
+	 */
+	public CurlShader() {
+		this(DEFAULT_GRID_SIZE);
+	}
+
+	/**
+	 * Constructor for given grid size. Shader program is created separately
+	 * with onSurfaceCreated.
+	 */
+	public CurlShader(int gridSize) {
+		if (gridSize < 1 || (gridSize + 1) * (gridSize + 1) > 0x10000) {
+			throw new IllegalArgumentException("Invalid grid size " + gridSize);
+		}
+
+		// Grid coordinates are within [0, 1] range and mapped to page rect in
+		// vertex shader so grid can be shared with all pages.
+		int vertexCount = (gridSize + 1) * (gridSize + 1);
+		ByteBuffer vbb = ByteBuffer.allocateDirect(vertexCount * 2 * 4);
+		vbb.order(ByteOrder.nativeOrder());
+		mBufGrid = vbb.asFloatBuffer();
+		for (int y = 0; y <= gridSize; ++y) {
+			for (int x = 0; x <= gridSize; ++x) {
+				mBufGrid.put((float) x / gridSize);
+				mBufGrid.put((float) y / gridSize);
+			}
+		}
+		mBufGrid.position(0);
+
+		mIndexCount = gridSize * gridSize * 6;
+		ByteBuffer ibb = ByteBuffer.allocateDirect(mIndexCount * 2);
+		ibb.order(ByteOrder.nativeOrder());
+		mBufIndices = ibb.asShortBuffer();
+		for (int y = 0; y < gridSize; ++y) {
+			for (int x = 0; x < gridSize; ++x) {
+				int i = y * (gridSize + 1) + x;
+				int j = i + gridSize + 1;
+				mBufIndices.put((short) i);
+				mBufIndices.put((short) j);
+				mBufIndices.put((short) (i + 1));
+				mBufIndices.put((short) (i + 1));
+				mBufIndices.put((short) j);
+				mBufIndices.put((short) (j + 1));
+			}
+		}
+		mBufIndices.position(0);
+	}
+
+	/**
+	 * Draws page grid deformed with given parameters. Front and back colors
+	 * and texture rects are the ones CurlMesh uses, texture ids are used as
+	 * front and back textures.
+	 */
+	public void draw(CurlDeformer deformer, int colorFront, int colorBack,
+			RectF textureRectFront, RectF textureRectBack, int textureFront,
+			int textureBack) {
+		GLES20.glUseProgram(mProgram);
+
+		float[] rect = deformer.getRect();
+		float[] curlPos = deformer.getCurlPos();
+		float[] curlDir = deformer.getCurlDir();
+		GLES20.glUniformMatrix4fv(muProjectionMatrix, 1, false,
+				mProjectionMatrix, 0);
+		GLES20.glUniform4f(muRect, rect[0], rect[1], rect[2], rect[3]);
+		GLES20.glUniform2f(muCurlPos, curlPos[0], curlPos[1]);
+		GLES20.glUniform2f(muCurlDir, curlDir[0], curlDir[1]);
+		GLES20.glUniform1f(muRadius, deformer.getRadius());
+		GLES20.glUniform1i(muFlipTexture, deformer.getFlipTexture() > .5f ? 1
+				: 0);
+		setColor(muColorFront, colorFront);
+		setColor(muColorBack, colorBack);
+		GLES20.glUniform2f(muTextureRectFront, textureRectFront.right,
+				textureRectFront.bottom);
+		GLES20.glUniform2f(muTextureRectBack, textureRectBack.right,
+				textureRectBack.bottom);
+
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureFront);
+		GLES20.glUniform1i(muTextureFront, 0);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureBack);
+		GLES20.glUniform1i(muTextureBack, 1);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+		// Depth test takes care of curled part being drawn over flat part.
+		// Pages are drawn at the same depth in order hence less or equal.
+		// Grid rows run top down, which makes unfolded triangles counter
+		// clockwise, and triangles folded over clockwise.
+		GLES20.glFrontFace(GLES20.GL_CCW);
+		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+		GLES20.glDepthFunc(GLES20.GL_LEQUAL);
+
+		GLES20.glVertexAttribPointer(maPosition, 2, GLES20.GL_FLOAT, false, 0,
+				mBufGrid);
+		GLES20.glEnableVertexAttribArray(maPosition);
+		GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+				GLES20.GL_UNSIGNED_SHORT, mBufIndices);
+		GLES20.glDisableVertexAttribArray(maPosition);
+
+		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+	}
+
+	/**
+	 * Compiles and links shader program. Returns zero on failure, error is
+	 * logged.
+	 */
+	private static int loadProgram(String vertexSource, String fragmentSource) {
+		int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+		int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
+				fragmentSource);
+		if (vertexShader == 0 || fragmentShader == 0) {
+			GLES20.glDeleteShader(vertexShader);
+			GLES20.glDeleteShader(fragmentShader);
+			return 0;
+		}
+		int program = GLES20.glCreateProgram();
+		GLES20.glAttachShader(program, vertexShader);
+		GLES20.glAttachShader(program, fragmentShader);
+		GLES20.glLinkProgram(program);
+		// Shaders are released once program is.
+		GLES20.glDeleteShader(vertexShader);
+		GLES20.glDeleteShader(fragmentShader);
+		int[] linkStatus = new int[1];
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+		if (linkStatus[0] != GLES20.GL_TRUE) {
+			Log.e("CurlShader", "Linking program failed: "
+					+ GLES20.glGetProgramInfoLog(program));
+			GLES20.glDeleteProgram(program);
+			return 0;
+		}
+		return program;
+	}
+
+	/**
+	 * Compiles shader of given type. Returns zero on failure, error is
+	 * logged.
+	 */
+	private static int loadShader(int type, String source) {
+		int shader = GLES20.glCreateShader(type);
+		GLES20.glShaderSource(shader, source);
+		GLES20.glCompileShader(shader);
+		int[] compiled = new int[1];
+		GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+		if (compiled[0] != GLES20.GL_TRUE) {
+			Log.e("CurlShader", "Compiling shader failed: "
+					+ GLES20.glGetShaderInfoLog(shader));
+			GLES20.glDeleteShader(shader);
+			return 0;
+		}
+		return shader;
+	}
+
+	/**
+	 * Creates shader program. Must be called on GL thread once GL context
+	 * has been created, program of previous context is gone with it. Returns
+	 * false if program could not be created.
+	 */
+	public boolean onSurfaceCreated() {
+		mProgram = loadProgram(SHADER_VERTEX, SHADER_FRAGMENT);
+		if (mProgram == 0) {
+			return false;
+		}
+		maPosition = GLES20.glGetAttribLocation(mProgram, "aPosition");
+		muColorBack = GLES20.glGetUniformLocation(mProgram, "uColorBack");
+		muColorFront = GLES20.glGetUniformLocation(mProgram, "uColorFront");
+		muCurlDir = GLES20.glGetUniformLocation(mProgram, "uCurlDir");
+		muCurlPos = GLES20.glGetUniformLocation(mProgram, "uCurlPos");
+		muFlipTexture = GLES20.glGetUniformLocation(mProgram, "uFlipTexture");
+		muProjectionMatrix = GLES20.glGetUniformLocation(mProgram,
+				"uProjectionMatrix");
+		muRadius = GLES20.glGetUniformLocation(mProgram, "uRadius");
+		muRect = GLES20.glGetUniformLocation(mProgram, "uRect");
+		muTextureBack = GLES20.glGetUniformLocation(mProgram, "sTextureBack");
+		muTextureFront = GLES20.glGetUniformLocation(mProgram, "sTextureFront");
+		muTextureRectBack = GLES20.glGetUniformLocation(mProgram,
+				"uTextureRectBack");
+		muTextureRectFront = GLES20.glGetUniformLocation(mProgram,
+				"uTextureRectFront");
+		return true;
+	}
+
+	/**
+	 * Sets color uniform from ARGB color.
+	 */
+	private static void setColor(int location, int color) {
+		GLES20.glUniform4f(location, Color.red(color) / 255f,
+				Color.green(color) / 255f, Color.blue(color) / 255f,
+				Color.alpha(color) / 255f);
+	}
+
+	/**
+	 * Sets projection matrix used for rendering.
+	 */
+	public void setProjectionMatrix(float[] projectionMatrix) {
+		System.arraycopy(projectionMatrix, 0, mProjectionMatrix, 0, 16);
+	}
+
+}
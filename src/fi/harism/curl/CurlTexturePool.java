@@ -0,0 +1,262 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.curl;
+
+import java.util.ArrayList;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+/**
+ * Pool of GL textures shared by page meshes. Bitmaps are uploaded into
+ * existing texture storage whenever texture of same size and format is
+ * available, and new storage is allocated only if there is none. Released
+ * textures are kept for reuse up to a limit and deleted after that. Pool is
+ * not thread safe and is meant to be used from rendering thread only.
+ *
+ * @author harism
+ */
+public class CurlTexturePool {
+
+	// Number of released textures kept for reuse.
+	private static final int FREE_TEXTURES_MAX = 2;
+
+	// Size of texture storage allocated in bytes.
+	private int mBytes;
+	// Released textures, oldest first.
+	private final ArrayList<Texture> mFree = new ArrayList<Texture>();
+	// Flag for using OpenGL ES 2.0 calls instead of GL10 ones.
+	private boolean mGles20;
+	// Non power of two texture support flag, read from UI thread too.
+	private volatile boolean mNpotSupported;
+	// Texture uploads and how many of them reused existing storage.
+	private int mUploads;
+	private int mUploadsReused;
+
+	/**
+	 * Deletes released textures.
+	 */
+	public void clear(GL10 gl) {
+		while (!mFree.isEmpty()) {
+			delete(gl, mFree.remove(0));
+		}
+	}
+
+	/**
+	 * Binds texture with given id.
+	 */
+	private void bind(GL10 gl, int id) {
+		if (mGles20) {
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, id);
+		} else {
+			gl.glBindTexture(GL10.GL_TEXTURE_2D, id);
+		}
+	}
+
+	/**
+	 * Deletes given texture.
+	 */
+	private void delete(GL10 gl, Texture texture) {
+		int[] textureIds = { texture.mId };
+		if (mGles20) {
+			GLES20.glDeleteTextures(1, textureIds, 0);
+		} else {
+			gl.glDeleteTextures(1, textureIds, 0);
+		}
+		mBytes -= texture.getBytes();
+	}
+
+	/**
+	 * Generates new texture id and sets up its filtering and wrapping.
+	 */
+	private int generate(GL10 gl) {
+		int[] textureIds = new int[1];
+		if (mGles20) {
+			GLES20.glGenTextures(1, textureIds, 0);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIds[0]);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+			return textureIds[0];
+		}
+		gl.glGenTextures(1, textureIds, 0);
+		gl.glBindTexture(GL10.GL_TEXTURE_2D, textureIds[0]);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
+				GL10.GL_NEAREST);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER,
+				GL10.GL_NEAREST);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
+				GL10.GL_CLAMP_TO_EDGE);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
+				GL10.GL_CLAMP_TO_EDGE);
+		return textureIds[0];
+	}
+
+	/**
+	 * Returns size of texture storage allocated in bytes.
+	 */
+	public int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Returns number of bitmaps uploaded.
+	 */
+	public int getUploads() {
+		return mUploads;
+	}
+
+	/**
+	 * Returns number of bitmaps uploaded into existing texture storage.
+	 */
+	public int getUploadsReused() {
+		return mUploadsReused;
+	}
+
+	/**
+	 * Returns true if GL context supports non power of two sized textures,
+	 * with clamped texture coordinates and without mipmaps.
+	 */
+	public boolean isNpotSupported() {
+		return mNpotSupported;
+	}
+
+	/**
+	 * Gives texture back to pool. Texture is kept for reuse or deleted if
+	 * there are enough released textures already.
+	 */
+	public void release(GL10 gl, Texture texture) {
+		if (texture == null) {
+			return;
+		}
+		mFree.add(texture);
+		while (mFree.size() > FREE_TEXTURES_MAX) {
+			delete(gl, mFree.remove(0));
+		}
+	}
+
+	/**
+	 * Forgets every texture. Should be called once GL context has been
+	 * re-created, textures of previous context are gone with it.
+	 */
+	public void reset() {
+		mFree.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Sets whether GL context is OpenGL ES 2.0 or later, textures are
+	 * handled with GLES20 calls then.
+	 */
+	public void setGles20(boolean gles20) {
+		mGles20 = gles20;
+	}
+
+	/**
+	 * Sets whether GL context supports non power of two sized textures.
+	 */
+	public void setNpotSupported(boolean npotSupported) {
+		mNpotSupported = npotSupported;
+	}
+
+	/**
+	 * Uploads bitmap into texture and returns texture holding it. Given
+	 * texture, which may be null, is reused if it matches bitmap size and
+	 * format. Otherwise it's released and matching texture is taken from
+	 * released ones, or new one is allocated.
+	 */
+	public Texture upload(GL10 gl, Texture texture, Bitmap bitmap) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		Bitmap.Config config = bitmap.getConfig();
+		if (texture != null && !texture.matches(width, height, config)) {
+			release(gl, texture);
+			texture = null;
+		}
+		for (int i = mFree.size() - 1; texture == null && i >= 0; --i) {
+			if (mFree.get(i).matches(width, height, config)) {
+				texture = mFree.remove(i);
+			}
+		}
+
+		++mUploads;
+		if (texture != null) {
+			++mUploadsReused;
+			bind(gl, texture.mId);
+			GLUtils.texSubImage2D(GL10.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+			return texture;
+		}
+
+		texture = new Texture(generate(gl), width, height, config);
+		GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bitmap, 0);
+		mBytes += texture.getBytes();
+		return texture;
+	}
+
+	/**
+	 * Texture id with size and format of its storage.
+	 */
+	public static class Texture {
+		private final Bitmap.Config mConfig;
+		private final int mHeight;
+		private final int mId;
+		private final int mWidth;
+
+		private Texture(int id, int width, int height, Bitmap.Config config) {
+			mId = id;
+			mWidth = width;
+			mHeight = height;
+			mConfig = config;
+		}
+
+		/**
+		 * Returns size of texture storage in bytes.
+		 */
+		public int getBytes() {
+			int bytesPerPixel = 2;
+			if (mConfig == Bitmap.Config.ALPHA_8) {
+				bytesPerPixel = 1;
+			} else if (mConfig == Bitmap.Config.ARGB_8888) {
+				bytesPerPixel = 4;
+			}
+			return mWidth * mHeight * bytesPerPixel;
+		}
+
+		/**
+		 * Returns texture id.
+		 */
+		public int getId() {
+			return mId;
+		}
+
+		/**
+		 * Returns true if bitmap of given size and format fits this texture.
+		 */
+		private boolean matches(int width, int height, Bitmap.Config config) {
+			return mWidth == width && mHeight == height && mConfig == config;
+		}
+	}
+
+}
@@ -16,13 +16,26 @@
 
 package fi.harism.curl;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
 import android.content.Context;
+import android.graphics.Color;
 import android.graphics.PointF;
 import android.graphics.RectF;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.animation.Interpolator;
 
 /**
  * OpenGL ES View.
@@ -30,17 +43,55 @@ import android.view.View;
  * @author harism
  */
 public class CurlView extends GLSurfaceView implements View.OnTouchListener,
-		CurlRenderer.Observer {
+		CurlRenderer.Observer, CurlPageLoader.Observer {
 
 	// Curl state. We are flipping none, left or right page.
 	private static final int CURL_LEFT = 1;
 	private static final int CURL_NONE = 0;
 	private static final int CURL_RIGHT = 2;
 
+	// Curl split policies. Fixed uses maximum split count always while
+	// adaptive chooses split count based on curl size on screen.
+	public static final int CURL_SPLITS_ADAPTIVE = 2;
+	public static final int CURL_SPLITS_FIXED = 1;
+
+	// Render backends. OpenGL ES 1.0 uses fixed function pipeline and curls
+	// pages on CPU, OpenGL ES 2.0 curls pages in vertex shader.
+	public static final int RENDER_BACKEND_GLES10 = 1;
+	public static final int RENDER_BACKEND_GLES20 = 2;
+
+	// Default prefetch memory budget in bytes.
+	private static final int PREFETCH_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+	// Default keyframe cache size in bytes.
+	private static final int KEYFRAME_CACHE_SIZE = 1024 * 1024;
+
+	// Shortest fling animation in milliseconds.
+	private static final long FLING_DURATION_MIN = 100;
+	// Release velocity in density independent pixels per second needed for
+	// fling.
+	private static final float FLING_VELOCITY = 400;
+
+	// Flip to page riffle. Page turn duration in milliseconds for pages
+	// turned before the last one, maximum number of turns shown and how much
+	// smaller stand-in textures riffled pages use.
+	private static final long FLIP_DURATION = 120;
+	private static final int FLIP_TEXTURE_SCALE = 4;
+	private static final int FLIP_TURNS_MAX = 6;
+
+	// Default page cache size in bytes.
+	private static final int PAGE_CACHE_SIZE = 24 * 1024 * 1024;
+
+	// Number of worker threads loading pages from asynchronous provider.
+	private static final int PAGE_LOADER_THREADS = 2;
+
 	// Constants for mAnimationTargetEvent.
 	private static final int SET_CURL_TO_LEFT = 1;
 	private static final int SET_CURL_TO_RIGHT = 2;
 
+	// Animation trajectory resolution, entries per second of animation.
+	private static final int TRAJECTORY_STEPS_PER_SECOND = 120;
+
 	// Shows one page at the center of view.
 	public static final int SHOW_ONE_PAGE = 1;
 	// Shows two pages side by side.
@@ -48,16 +99,85 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 
 	private boolean mAllowLastPageCurl = true;
 
+	// Page meshes, current index, curl state and animation flag are owned by
+	// UI thread. Rendering thread is handed what it needs with pointer
+	// positions and trajectories, and tells once animation has ended.
 	private boolean mAnimate = false;
+	// Called on UI thread once page animation has ended. Curled page is
+	// switched to the side it was animated to, meshes keep showing last
+	// animation frame until then.
+	private final Runnable mAnimationDone = new Runnable() {
+		@Override
+		public void run() {
+			if (mAnimationTargetEvent == SET_CURL_TO_RIGHT) {
+				// Switch curled page to right.
+				CurlMesh right = mPageCurl;
+				CurlMesh curl = mPageRight;
+				mRenderer.setRect(right,
+						mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+				mRenderer.setFlipTexture(right, false);
+				mRenderer.reset(right);
+				mRenderer.removeCurlMesh(curl);
+				mPageCurl = curl;
+				mPageRight = right;
+				// If we were curling left page update current index.
+				if (mCurlState == CURL_LEFT) {
+					--mCurrentIndex;
+				}
+			} else if (mAnimationTargetEvent == SET_CURL_TO_LEFT) {
+				// Switch curled page to left.
+				CurlMesh left = mPageCurl;
+				CurlMesh curl = mPageLeft;
+				mRenderer.setRect(left,
+						mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
+				mRenderer.setFlipTexture(left, true);
+				mRenderer.reset(left);
+				mRenderer.removeCurlMesh(curl);
+				if (!mRenderLeftPage) {
+					mRenderer.removeCurlMesh(left);
+				}
+				mPageCurl = curl;
+				mPageLeft = left;
+				// If we were curling right page update current index.
+				if (mCurlState == CURL_RIGHT) {
+					++mCurrentIndex;
+				}
+			}
+			mCurlState = CURL_NONE;
+			mAnimate = false;
+			requestRender();
+			// Let flip to page continue and prefetch continue from new index.
+			flipNext();
+			if (mMaxCurlSplitsPending > 0) {
+				setMaxCurlSplits(mMaxCurlSplitsPending);
+			}
+			prefetchPages();
+		}
+	};
+	// Animation timing and trajectory, used from rendering thread only.
+	private CurlAnimation mAnimation = new CurlAnimation();
 	private long mAnimationDurationTime = 300;
+	private Trajectory mAnimationTrajectory;
+	// Trajectory calculated on release, taken by rendering thread.
+	private final AtomicReference<Trajectory> mAnimationPending = new AtomicReference<Trajectory>();
 	private PointF mAnimationSource = new PointF();
-	private long mAnimationStartTime;
 	private PointF mAnimationTarget = new PointF();
 	private int mAnimationTargetEvent;
 
+	// Clock used for timing, System.nanoTime unless changed.
+	private Clock mClock = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
 	private PointF mCurlDir = new PointF();
 
 	private PointF mCurlPos = new PointF();
+	// Curl split policy and wanted split length in pixels for adaptive mode.
+	private float mCurlSplitLength = 8f;
+	private int mCurlSplitPolicy = CURL_SPLITS_FIXED;
 	private int mCurlState = CURL_NONE;
 	// Current bitmap index. This is always showed as front of right page.
 	private int mCurrentIndex = 0;
@@ -65,7 +185,29 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	// Start position for dragging.
 	private PointF mDragStartPos = new PointF();
 
+	private boolean mEnableFling = true;
 	private boolean mEnableTouchPressure = false;
+	// Minimum fling velocity in pixels per second.
+	private float mFlingVelocity;
+	// Flip to page state. Indices page turns start from, next turn, direction
+	// and destination index. Indices are null if no flip is in progress.
+	private boolean mFlipForward;
+	private int[] mFlipPages;
+	private int mFlipStep;
+	private int mFlipTarget;
+	// Gesture counter, increased on every pointer down.
+	private int mGesture;
+	// Recorded page turn animations, used from rendering thread only.
+	private CurlKeyframeCache mKeyframeCache = new CurlKeyframeCache(
+			KEYFRAME_CACHE_SIZE);
+	// Maximum curl split count, page meshes are allocated for this count.
+	// Count set while pages are moving is applied once they stop, zero if
+	// there is none.
+	private int mMaxCurlSplits = 10;
+	private int mMaxCurlSplitsPending;
+	// Whether non power of two textures are supported, updated from renderer
+	// once it's initialized.
+	private boolean mNpotSupported = false;
 	// Bitmap size. These are updated from renderer once it's initialized.
 	private int mPageBitmapHeight = -1;
 
@@ -75,14 +217,64 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private CurlMesh mPageCurl;
 
 	private CurlMesh mPageLeft;
+	// Rendered page contents by page index and size.
+	private CurlPageCache mPageCache = new CurlPageCache(PAGE_CACHE_SIZE);
+	// Loads pages from asynchronous page provider. Epoch is increased every
+	// time current index changes.
+	private int mPageEpoch;
+	private CurlPageLoader mPageLoader;
 	private PageProvider mPageProvider;
 	private CurlMesh mPageRight;
+	// Meshes showing placeholder while their page is being loaded, with index
+	// and size of the page.
+	private final HashMap<CurlMesh, CurlPageCache.Key> mPagesPending = new HashMap<CurlMesh, CurlPageCache.Key>();
+	private int mPlaceholderColor = Color.WHITE;
+	// Pixels per view coordinate unit.
+	private float mPixelScale = 0f;
 
 	private PointerPosition mPointerPos = new PointerPosition();
-
+	// Touch predictor, bounds prediction is clamped to and gesture predictor
+	// has samples from. Used from rendering thread only.
+	private CurlPredictor mPredictor = new CurlPredictor();
+	private RectF mPredictorBounds = new RectF();
+	private int mPredictorGesture = -1;
+	// Number of pages loaded ahead and behind visible ones at slow pace.
+	private int mPrefetchAhead = 2;
+	private int mPrefetchBehind = 2;
+	// Prefetch statistics, pages found loaded and pages shown as placeholder
+	// when needed.
+	private int mPrefetchHits;
+	// Current index prefetch policy has seen latest.
+	private int mPrefetchIndex;
+	private int mPrefetchMemoryBudget = PREFETCH_MEMORY_BUDGET;
+	private int mPrefetchMisses;
+	private CurlPrefetchPolicy mPrefetchPolicy = new CurlPrefetchPolicy();
+	// Newest pointer position not yet used for curl. Set from touch events,
+	// taken once per frame by rendering thread.
+	private final AtomicReference<PointerPosition> mPointerPending = new AtomicReference<PointerPosition>();
+	// Buffer objects usage flag.
+	private boolean mBufferObjects = true;
+
+	// Render backend used once GL context is created.
+	private int mRenderBackend = RENDER_BACKEND_GLES10;
 	private CurlRenderer mRenderer;
 	private boolean mRenderLeftPage = true;
+	// Single pass page rendering flag.
+	private boolean mSinglePassRendering = true;
 	private SizeChangedObserver mSizeChangedObserver;
+	// Touch samples received, including historical ones, and number of
+	// samples actually used for curl. Former is written on UI thread, latter
+	// on rendering thread.
+	private volatile int mTouchSamples;
+	private volatile int mTouchSamplesUsed;
+	// Pointer velocity tracking for flings.
+	private VelocityTracker mVelocityTracker;
+	// Touch prediction flag and how far ahead of current time pointer
+	// position is predicted in milliseconds.
+	private boolean mTouchPrediction = false;
+	private float mTouchPredictionTime = 16f;
+	// Vertex format used by page meshes.
+	private int mVertexFormat = CurlMesh.VERTEX_FORMAT_SEPARATE;
 
 	// One page is the default.
 	private int mViewMode = SHOW_ONE_PAGE;
@@ -110,6 +302,302 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		this(ctx, attrs);
 	}
 
+	/**
+	 * Ends flip to page showing destination spread with full size pages.
+	 */
+	private void finishFlip() {
+		mFlipPages = null;
+		mCurrentIndex = mFlipTarget;
+		updatePages();
+		requestRender();
+	}
+
+	/**
+	 * Starts next page turn of flip to page, or finishes flip once every turn
+	 * has been shown.
+	 */
+	private void flipNext() {
+		if (mFlipPages == null) {
+			return;
+		}
+		if (mFlipStep >= mFlipPages.length) {
+			finishFlip();
+			return;
+		}
+		// Pages skipped in between are replaced by loading page turn starts
+		// from into the mesh about to be curled.
+		int index = mFlipPages[mFlipStep];
+		if (mFlipStep > 0) {
+			mCurrentIndex = index;
+			if (mFlipForward) {
+				updatePage(mPageRight, index);
+			} else {
+				updatePage(mPageLeft, index - 1);
+			}
+		}
+		++mFlipStep;
+		long duration = mFlipStep == mFlipPages.length ? mAnimationDurationTime
+				: FLIP_DURATION;
+		turnPage(mFlipForward ? CURL_RIGHT : CURL_LEFT, duration);
+		if (!mAnimate) {
+			finishFlip();
+		}
+	}
+
+	/**
+	 * Turns to page at given index. Jumping over several pages shows a short
+	 * riffle of page turns using low resolution pages, and only destination
+	 * spread is rendered in full size once riffle ends. Does nothing if page
+	 * is being curled already.
+	 */
+	public void flipToPage(int index) {
+		if (mAnimate || mPageProvider == null || mCurlState != CURL_NONE) {
+			return;
+		}
+		int pageCount = mPageProvider.getPageCount();
+		index = Math.max(0,
+				Math.min(index, mAllowLastPageCurl ? pageCount : pageCount - 1));
+		int distance = Math.abs(index - mCurrentIndex);
+		if (distance == 0) {
+			return;
+		}
+		// Turns are spread evenly so that first one starts from current page
+		// and last one ends on destination.
+		int turns = Math.min(distance, FLIP_TURNS_MAX);
+		mFlipForward = index > mCurrentIndex;
+		mFlipPages = new int[turns];
+		for (int i = 0; i < turns; ++i) {
+			int skip = turns > 1 ? Math.round((float) i * (distance - 1)
+					/ (turns - 1)) : 0;
+			mFlipPages[i] = mFlipForward ? mCurrentIndex + skip
+					: mCurrentIndex - skip;
+		}
+		mFlipStep = 0;
+		mFlipTarget = index;
+		flipNext();
+	}
+
+	/**
+	 * Returns number of frames dropped during latest page animation.
+	 */
+	public int getAnimationDroppedFrames() {
+		return mAnimation.getDroppedFrames();
+	}
+
+	/**
+	 * Returns number of frames latest page animation was rendered with.
+	 */
+	public int getAnimationFrames() {
+		return mAnimation.getFrames();
+	}
+
+	/**
+	 * Returns number of page Bitmap allocations avoided by reusing Bitmaps
+	 * from Bitmap pool.
+	 */
+	public int getBitmapAllocationsAvoided() {
+		return CurlBitmapPool.getDefault().getAllocationsAvoided();
+	}
+
+	/**
+	 * Returns number of vertex bytes uploaded to GL during latest frame.
+	 */
+	public int getBytesUploaded() {
+		return mRenderer.getBytesUploaded();
+	}
+
+	/**
+	 * Returns number of queued curl and reset commands renderer skipped as
+	 * they were replaced by a newer one before next frame.
+	 */
+	public int getCommandsCoalesced() {
+		return mRenderer.getCommandsCoalesced();
+	}
+
+	/**
+	 * Returns total size of pages in page cache in bytes.
+	 */
+	public int getPageCacheBytes() {
+		return mPageCache.getBytes();
+	}
+
+	/**
+	 * Returns fraction of pages found from page cache, without asking them
+	 * from page provider.
+	 */
+	public float getPageCacheHitRate() {
+		int lookups = mPageCache.getHits() + mPageCache.getMisses();
+		return lookups > 0 ? (float) mPageCache.getHits() / lookups : 0f;
+	}
+
+	/**
+	 * Returns number of page loads from asynchronous page provider cancelled
+	 * as pages were no longer needed.
+	 */
+	public int getPageLoadsCancelled() {
+		return mPageLoader.getJobsCancelled();
+	}
+
+	/**
+	 * Returns number of pages requested from asynchronous page provider
+	 * which were loaded by the time they were needed.
+	 */
+	public int getPrefetchHits() {
+		return mPrefetchHits;
+	}
+
+	/**
+	 * Returns number of pages requested from asynchronous page provider
+	 * which weren't loaded by the time they were needed and were shown as
+	 * placeholder.
+	 */
+	public int getPrefetchMisses() {
+		return mPrefetchMisses;
+	}
+
+	/**
+	 * Returns size of texture storage allocated for pages in bytes.
+	 */
+	public int getTextureBytes() {
+		return mRenderer.getTextureBytes();
+	}
+
+	/**
+	 * Returns fraction of page texture uploads which reused existing texture
+	 * storage instead of allocating new one.
+	 */
+	public float getTextureReuseRate() {
+		return mRenderer.getTextureReuseRate();
+	}
+
+	/**
+	 * Calculates curl for given pointer position into curlPos and curlDir and
+	 * returns curl radius. Returns negative value if curl is not visible and
+	 * page should be drawn flat instead. Curl state, drag start position and
+	 * view mode are taken from pointer position so that this can be called
+	 * on rendering thread too.
+	 */
+	private double getCurl(PointerPosition pointerPos, PointF curlPos,
+			PointF curlDir) {
+		// Default curl radius.
+		double radius = mRenderer.getPageRect(CURL_RIGHT).width() / 3;
+		// TODO: This is not an optimal solution. Based on feedback received so
+		// far; pressure is not very accurate, it may be better not to map
+		// coefficient to range [0f, 1f] but something like [.2f, 1f] instead.
+		// Leaving it as is until get my hands on a real device. On emulator
+		// this doesn't work anyway.
+		radius *= Math.max(1f - pointerPos.mPressure, 0f);
+		// NOTE: Here we set pointerPos to curlPos. It might be a bit confusing
+		// later to see e.g "curlPos.x - mDragStartPos.x" used. But it's
+		// actually pointerPos we are doing calculations against. Why? Simply to
+		// optimize code a bit with the cost of making it unreadable. Otherwise
+		// we had to this in both of the next if-else branches.
+		curlPos.set(pointerPos.mPos);
+
+		// If curl happens on right page, or on left page on two page mode,
+		// we'll calculate curl position from pointerPos.
+		if (pointerPos.mCurlState == CURL_RIGHT
+				|| (pointerPos.mCurlState == CURL_LEFT && pointerPos.mViewMode == SHOW_TWO_PAGES)) {
+
+			curlDir.x = curlPos.x - pointerPos.mDragStartPos.x;
+			curlDir.y = curlPos.y - pointerPos.mDragStartPos.y;
+			float dist = (float) Math.sqrt(curlDir.x * curlDir.x + curlDir.y
+					* curlDir.y);
+
+			// Adjust curl radius so that if page is dragged far enough on
+			// opposite side, radius gets closer to zero.
+			float pageWidth = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT)
+					.width();
+			double curlLen = radius * Math.PI;
+			if (dist > (pageWidth * 2) - curlLen) {
+				curlLen = Math.max((pageWidth * 2) - dist, 0f);
+				radius = curlLen / Math.PI;
+			}
+
+			// Actual curl position calculation.
+			if (dist >= curlLen) {
+				double translate = (dist - curlLen) / 2;
+				if (pointerPos.mViewMode == SHOW_TWO_PAGES) {
+					curlPos.x -= curlDir.x * translate / dist;
+				} else {
+					float pageLeftX = mRenderer
+							.getPageRect(CurlRenderer.PAGE_RIGHT).left;
+					radius = Math.max(Math.min(curlPos.x - pageLeftX, radius),
+							0f);
+				}
+				curlPos.y -= curlDir.y * translate / dist;
+			} else {
+				double angle = Math.PI * Math.sqrt(dist / curlLen);
+				double translate = radius * Math.sin(angle);
+				curlPos.x += curlDir.x * translate / dist;
+				curlPos.y += curlDir.y * translate / dist;
+			}
+		}
+		// Otherwise we'll let curl follow pointer position.
+		else if (pointerPos.mCurlState == CURL_LEFT) {
+
+			// Adjust radius regarding how close to page edge we are.
+			float pageLeftX = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT).left;
+			radius = Math.max(Math.min(curlPos.x - pageLeftX, radius), 0f);
+
+			float pageRightX = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT).right;
+			curlPos.x -= Math.min(pageRightX - curlPos.x, radius);
+			curlDir.x = curlPos.x + pointerPos.mDragStartPos.x;
+			curlDir.y = curlPos.y - pointerPos.mDragStartPos.y;
+		}
+
+		// Reposition curl so that page doesn't 'rip off' from book.
+		if (pointerPos.mCurlState == CURL_RIGHT
+				|| (pointerPos.mCurlState == CURL_LEFT && pointerPos.mViewMode == SHOW_ONE_PAGE)) {
+			RectF pageRect = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT);
+			if (curlPos.x >= pageRect.right) {
+				return -1;
+			}
+			if (curlPos.x < pageRect.left) {
+				curlPos.x = pageRect.left;
+			}
+			if (curlDir.y != 0) {
+				float diffX = curlPos.x - pageRect.left;
+				float leftY = curlPos.y + (diffX * curlDir.x / curlDir.y);
+				if (curlDir.y < 0 && leftY < pageRect.top) {
+					curlDir.x = curlPos.y - pageRect.top;
+					curlDir.y = pageRect.left - curlPos.x;
+				} else if (curlDir.y > 0 && leftY > pageRect.bottom) {
+					curlDir.x = pageRect.bottom - curlPos.y;
+					curlDir.y = curlPos.x - pageRect.left;
+				}
+			}
+		} else if (pointerPos.mCurlState == CURL_LEFT) {
+			RectF pageRect = mRenderer.getPageRect(CurlRenderer.PAGE_LEFT);
+			if (curlPos.x <= pageRect.left) {
+				return -1;
+			}
+			if (curlPos.x > pageRect.right) {
+				curlPos.x = pageRect.right;
+			}
+			if (curlDir.y != 0) {
+				float diffX = curlPos.x - pageRect.right;
+				float rightY = curlPos.y + (diffX * curlDir.x / curlDir.y);
+				if (curlDir.y < 0 && rightY < pageRect.top) {
+					curlDir.x = pageRect.top - curlPos.y;
+					curlDir.y = curlPos.x - pageRect.right;
+				} else if (curlDir.y > 0 && rightY > pageRect.bottom) {
+					curlDir.x = curlPos.y - pageRect.bottom;
+					curlDir.y = pageRect.right - curlPos.x;
+				}
+			}
+		}
+
+		// Finally normalize direction vector.
+		double dist = Math.sqrt(curlDir.x * curlDir.x + curlDir.y * curlDir.y);
+		if (dist == 0) {
+			return -1;
+		}
+		curlDir.x /= dist;
+		curlDir.y /= dist;
+		return radius;
+	}
+
 	/**
 	 * Get current page index. Page indices are zero based values presenting
 	 * page being shown on right side of the book.
@@ -118,86 +606,286 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		return mCurrentIndex;
 	}
 
+	/**
+	 * Returns number of curl updates skipped by page meshes as redundant.
+	 */
+	public int getCurlHits() {
+		return mPageLeft.getCurlHits() + mPageRight.getCurlHits()
+				+ mPageCurl.getCurlHits();
+	}
+
+	/**
+	 * Returns number of curl updates page meshes had to calculate.
+	 */
+	public int getCurlMisses() {
+		return mPageLeft.getCurlMisses() + mPageRight.getCurlMisses()
+				+ mPageCurl.getCurlMisses();
+	}
+
+	/**
+	 * Returns split count used for latest curl.
+	 */
+	public int getCurlSplits() {
+		return mPageCurl.getCurlSplits();
+	}
+
+	/**
+	 * Returns number of shadow vertices used for rendering curled page.
+	 */
+	public int getCurlShadowVertexCount() {
+		return mPageCurl.getShadowVertexCount();
+	}
+
+	/**
+	 * Returns curl split policy, either CURL_SPLITS_FIXED or
+	 * CURL_SPLITS_ADAPTIVE.
+	 */
+	public int getCurlSplitPolicy() {
+		return mCurlSplitPolicy;
+	}
+
+	/**
+	 * Returns number of vertices used for rendering curled page.
+	 */
+	public int getCurlVertexCount() {
+		return mPageCurl.getVertexCount();
+	}
+
+	/**
+	 * Returns maximum curl split count.
+	 */
+	public int getMaxCurlSplits() {
+		return mMaxCurlSplits;
+	}
+
+	/**
+	 * Returns number of touch samples, historical ones included, which were
+	 * not used for curl as a newer sample arrived before next frame.
+	 */
+	public int getTouchSamplesCoalesced() {
+		return mTouchSamples - mTouchSamplesUsed;
+	}
+
+	/**
+	 * Calculates trajectory for page animation from source pointer position
+	 * to target one. Curl is calculated for evenly spaced pointer positions
+	 * between them so that animation frames only need to look it up.
+	 */
+	private Trajectory getTrajectory(PointF source, PointF target,
+			float pressure, long duration) {
+		int steps = Math.max(2, (int) (duration * TRAJECTORY_STEPS_PER_SECOND
+				/ 1000) + 1);
+		Trajectory trajectory = new Trajectory(steps);
+		trajectory.mDuration = duration;
+		trajectory.mMesh = mPageCurl;
+
+		PointerPosition pointerPos = new PointerPosition();
+		pointerPos.setCurlState();
+		pointerPos.mPressure = pressure;
+		PointF curlPos = new PointF();
+		PointF curlDir = new PointF();
+		for (int i = 0; i < steps; ++i) {
+			float t = (float) i / (steps - 1);
+			pointerPos.mPos.x = source.x + (target.x - source.x) * t;
+			pointerPos.mPos.y = source.y + (target.y - source.y) * t;
+			double radius = getCurl(pointerPos, curlPos, curlDir);
+			trajectory.set(i, curlPos, curlDir, radius);
+		}
+		return trajectory;
+	}
+
+	/**
+	 * Returns number of page turn keyframes replayed from keyframe cache.
+	 */
+	public int getKeyframeHits() {
+		return mKeyframeCache.getHits();
+	}
+
+	/**
+	 * Returns number of page turn keyframes which had to be calculated.
+	 */
+	public int getKeyframeMisses() {
+		return mKeyframeCache.getMisses();
+	}
+
 	/**
 	 * Initialize method.
 	 */
 	private void init(Context ctx) {
+		mFlingVelocity = FLING_VELOCITY
+				* ctx.getResources().getDisplayMetrics().density;
 		mRenderer = new CurlRenderer(this);
+		mPageLoader = new CurlPageLoader(this, PAGE_LOADER_THREADS);
+		// Config chooser and context factory select OpenGL ES version based
+		// on render backend each time GL context is created.
+		setEGLConfigChooser(new ConfigChooser());
+		setEGLContextFactory(new ContextFactory());
 		setRenderer(mRenderer);
 		setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 		setOnTouchListener(this);
+		initMeshes();
+	}
 
+	/**
+	 * Allocates page meshes.
+	 */
+	private void initMeshes() {
 		// Even though left and right pages are static we have to allocate room
 		// for curl on them too as we are switching meshes. Another way would be
 		// to swap texture ids only.
-		mPageLeft = new CurlMesh(10);
-		mPageRight = new CurlMesh(10);
-		mPageCurl = new CurlMesh(10);
+		mPageLeft = new CurlMesh(mMaxCurlSplits);
+		mPageRight = new CurlMesh(mMaxCurlSplits);
+		mPageCurl = new CurlMesh(mMaxCurlSplits);
+		// New meshes are not known to renderer yet, so it's safe to set them
+		// up directly. Once added, meshes are modified through renderer only.
 		mPageLeft.setFlipTexture(true);
 		mPageRight.setFlipTexture(false);
+		mPageLeft.setVertexFormat(mVertexFormat);
+		mPageRight.setVertexFormat(mVertexFormat);
+		mPageCurl.setVertexFormat(mVertexFormat);
+		mPageLeft.setSinglePassRendering(mSinglePassRendering);
+		mPageRight.setSinglePassRendering(mSinglePassRendering);
+		mPageCurl.setSinglePassRendering(mSinglePassRendering);
+		mPageLeft.setBufferObjects(mBufferObjects);
+		mPageRight.setBufferObjects(mBufferObjects);
+		mPageCurl.setBufferObjects(mBufferObjects);
+		updateCurlSplits();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		// Stop loader threads, pages are loaded again once surface is
+		// recreated after View is attached again.
+		mPageLoader.release();
+		mPagesPending.clear();
+		// Pooled Bitmaps are kept only while pages are shown.
+		CurlBitmapPool.getDefault().clear();
 	}
 
 	@Override
 	public void onDrawFrame() {
+		// Time for this frame, used for everything timed during it.
+		long frameTime = mClock.nanoTime();
+
+		// Animation begins from first frame rendered after it was requested.
+		Trajectory trajectory = mAnimationPending.getAndSet(null);
+		if (trajectory != null) {
+			mAnimationTrajectory = trajectory;
+			mAnimation.start(trajectory.mDuration * 1000000L);
+		}
+
+		// Curl follows newest pointer position, positions received since
+		// previous frame are skipped. Pointer is not followed during
+		// animation.
+		PointerPosition pointerPos = mPointerPending.getAndSet(null);
+		if (pointerPos != null) {
+			++mTouchSamplesUsed;
+			if (mAnimationTrajectory == null) {
+				if (mTouchPrediction) {
+					predictPointerPos(pointerPos, frameTime);
+				}
+				updateCurlPos(pointerPos);
+			}
+		}
+
 		// We are not animating.
-		if (mAnimate == false) {
+		if (mAnimationTrajectory == null) {
 			return;
 		}
 
-		long currentTime = System.currentTimeMillis();
-		// If animation is done.
-		if (currentTime >= mAnimationStartTime + mAnimationDurationTime) {
-			if (mAnimationTargetEvent == SET_CURL_TO_RIGHT) {
-				// Switch curled page to right.
-				CurlMesh right = mPageCurl;
-				CurlMesh curl = mPageRight;
-				right.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
-				right.setFlipTexture(false);
-				right.reset();
-				mRenderer.removeCurlMesh(curl);
-				mPageCurl = curl;
-				mPageRight = right;
-				// If we were curling left page update current index.
-				if (mCurlState == CURL_LEFT) {
-					--mCurrentIndex;
-				}
-			} else if (mAnimationTargetEvent == SET_CURL_TO_LEFT) {
-				// Switch curled page to left.
-				CurlMesh left = mPageCurl;
-				CurlMesh curl = mPageLeft;
-				left.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
-				left.setFlipTexture(true);
-				left.reset();
-				mRenderer.removeCurlMesh(curl);
-				if (!mRenderLeftPage) {
-					mRenderer.removeCurlMesh(left);
-				}
-				mPageCurl = curl;
-				mPageLeft = left;
-				// If we were curling right page update current index.
-				if (mCurlState == CURL_RIGHT) {
-					++mCurrentIndex;
-				}
+		float t = mAnimation.update(frameTime);
+		CurlMesh mesh = mAnimationTrajectory.mMesh;
+		// If animation is done, let UI thread switch pages.
+		if (!mAnimation.isRunning()) {
+			mAnimationTrajectory = null;
+			post(mAnimationDone);
+		} else if (mAnimationTrajectory.mKeyframeAnimation != null) {
+			// Standard page turn snaps to closest keyframe so that meshes
+			// can be replayed from keyframe cache.
+			int keyframe = mAnimationTrajectory.getKeyframe(t);
+			double radius = mAnimationTrajectory.get(keyframe, mCurlPos,
+					mCurlDir);
+			if (radius >= 0) {
+				mRenderer.curl(mesh, mCurlPos, mCurlDir, radius,
+						mKeyframeCache,
+						mAnimationTrajectory.mKeyframeAnimation, keyframe,
+						mAnimationTrajectory.getKeyframeCount());
+			} else {
+				mRenderer.reset(mesh);
 			}
-			mCurlState = CURL_NONE;
-			mAnimate = false;
 			requestRender();
 		} else {
-			mPointerPos.mPos.set(mAnimationSource);
-			float t = 1f - ((float) (currentTime - mAnimationStartTime) / mAnimationDurationTime);
-			t = 1f - (t * t * t * (3 - 2 * t));
-			mPointerPos.mPos.x += (mAnimationTarget.x - mAnimationSource.x) * t;
-			mPointerPos.mPos.y += (mAnimationTarget.y - mAnimationSource.y) * t;
-			updateCurlPos(mPointerPos);
+			double radius = mAnimationTrajectory.get(t, mCurlPos, mCurlDir);
+			if (radius >= 0) {
+				mRenderer.curl(mesh, mCurlPos, mCurlDir, radius);
+			} else {
+				mRenderer.reset(mesh);
+			}
+			requestRender();
 		}
 	}
 
+	/**
+	 * Turns to next page using standard page turn animation. Does nothing if
+	 * page is being curled already or there is no next page.
+	 */
+	public void nextPage() {
+		turnPage(CURL_RIGHT, mAnimationDurationTime);
+	}
+
 	@Override
-	public void onPageSizeChanged(int width, int height) {
-		mPageBitmapWidth = width;
-		mPageBitmapHeight = height;
-		updatePages();
-		requestRender();
+	public void onPageLoaded(CurlPage page, int index, int width, int height) {
+		mPageCache.putPage(index, width, height, page);
+		// Share loaded page with meshes waiting for it, if any.
+		CurlPageCache.Key key = new CurlPageCache.Key(index, width, height);
+		Iterator<Map.Entry<CurlMesh, CurlPageCache.Key>> iter = mPagesPending
+				.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<CurlMesh, CurlPageCache.Key> entry = iter.next();
+			if (entry.getValue().equals(key)) {
+				CurlPage shared = new CurlPage();
+				shared.share(page);
+				mRenderer.setPage(entry.getKey(), shared);
+				iter.remove();
+				requestRender();
+			}
+		}
+	}
+
+	@Override
+	public void onPageSizeChanged(final int width, final int height) {
+		// Recorded animations are for previous page size.
+		mKeyframeCache.clear();
+		final float pageWidth = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT)
+				.width();
+		final boolean npotSupported = mRenderer.isNpotSupported();
+		// Called on rendering thread, new page size is taken into use and
+		// pages are loaded on UI thread.
+		post(new Runnable() {
+			@Override
+			public void run() {
+				mPageBitmapWidth = width;
+				mPageBitmapHeight = height;
+				mNpotSupported = npotSupported;
+				if (pageWidth > 0) {
+					mPixelScale = width / pageWidth;
+					updateCurlSplits();
+				}
+				mPageLoader.setPageSize(width, height, !npotSupported);
+				mPageCache.clear();
+				updatePages();
+				requestRender();
+			}
+		});
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		// Let go of pooled Bitmaps while in background, pages still in cache
+		// keep theirs.
+		CurlBitmapPool.getDefault().clear();
 	}
 
 	@Override
@@ -211,12 +899,9 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 
 	@Override
 	public void onSurfaceCreated() {
-		// In case surface is recreated, let page meshes drop allocated texture
-		// ids and ask for new ones. There's no need to set textures here as
+		// Renderer has let page meshes drop allocated texture ids and buffer
+		// objects already. There's no need to set textures here as
 		// onPageSizeChanged should be called later on.
-		mPageLeft.resetTexture();
-		mPageRight.resetTexture();
-		mPageCurl.resetTexture();
 	}
 
 	@Override
@@ -226,6 +911,10 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		if (mAnimate || mPageProvider == null) {
 			return false;
 		}
+		// Touch in between flip to page turns skips rest of them.
+		if (mFlipPages != null) {
+			finishFlip();
+		}
 
 		// We need page rects quite extensively so get them for later use.
 		RectF rightRect = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT);
@@ -233,6 +922,7 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 
 		// Store pointer position.
 		mPointerPos.mPos.set(me.getX(), me.getY());
+		mPointerPos.mEventTime = me.getEventTime();
 		mRenderer.translate(mPointerPos.mPos);
 		if (mEnableTouchPressure) {
 			mPointerPos.mPressure = me.getPressure();
@@ -240,8 +930,20 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 			mPointerPos.mPressure = 0.8f;
 		}
 
+		if (me.getAction() == MotionEvent.ACTION_DOWN) {
+			if (mVelocityTracker == null) {
+				mVelocityTracker = VelocityTracker.obtain();
+			} else {
+				mVelocityTracker.clear();
+			}
+		}
+		if (mVelocityTracker != null) {
+			mVelocityTracker.addMovement(me);
+		}
+
 		switch (me.getAction()) {
 		case MotionEvent.ACTION_DOWN: {
+			++mGesture;
 
 			// Once we receive pointer down event its position is mapped to
 			// right or left edge of page and that'll be the position from where
@@ -301,7 +1003,7 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 			}
 		}
 		case MotionEvent.ACTION_MOVE: {
-			updateCurlPos(mPointerPos);
+			queuePointerPos(mPointerPos, me.getHistorySize());
 			break;
 		}
 		case MotionEvent.ACTION_CANCEL:
@@ -315,13 +1017,30 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 				// direction directly), this is done in a hope it made code a
 				// bit more readable and easier to maintain.
 				mAnimationSource.set(mPointerPos.mPos);
-				mAnimationStartTime = System.currentTimeMillis();
+
+				// Fast enough horizontal movement on release decides the
+				// direction page is turned to, as long as it's in the
+				// direction page was dragged to. Cancelled gesture is never
+				// a fling.
+				float velocityX = 0f;
+				if (mVelocityTracker != null) {
+					mVelocityTracker.computeCurrentVelocity(1000);
+					velocityX = mVelocityTracker.getXVelocity();
+					mVelocityTracker.recycle();
+					mVelocityTracker = null;
+				}
+				boolean fling = mEnableFling
+						&& me.getAction() == MotionEvent.ACTION_UP
+						&& Math.abs(velocityX) >= mFlingVelocity
+						&& (velocityX > 0) == (mPointerPos.mPos.x
+								> mDragStartPos.x);
 
 				// Given the explanation, here we decide whether to simulate
 				// drag to left or right end.
-				if ((mViewMode == SHOW_ONE_PAGE && mPointerPos.mPos.x > (rightRect.left + rightRect.right) / 2)
-						|| mViewMode == SHOW_TWO_PAGES
-						&& mPointerPos.mPos.x > rightRect.left) {
+				if (fling ? velocityX > 0
+						: (mViewMode == SHOW_ONE_PAGE && mPointerPos.mPos.x > (rightRect.left + rightRect.right) / 2)
+								|| mViewMode == SHOW_TWO_PAGES
+								&& mPointerPos.mPos.x > rightRect.left) {
 					// On right side target is always right page's right border.
 					mAnimationTarget.set(mDragStartPos);
 					mAnimationTarget.x = mRenderer
@@ -337,6 +1056,21 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 					}
 					mAnimationTargetEvent = SET_CURL_TO_LEFT;
 				}
+
+				// Fling lasts about the time it takes to cover remaining
+				// distance at half of release velocity.
+				long duration = mAnimationDurationTime;
+				if (fling && mPixelScale > 0) {
+					float distance = Math.abs(mAnimationTarget.x
+							- mAnimationSource.x)
+							* mPixelScale;
+					duration = (long) (2000 * distance / Math.abs(velocityX));
+					duration = Math.max(FLING_DURATION_MIN,
+							Math.min(mAnimationDurationTime, duration));
+				}
+
+				mAnimationPending.set(getTrajectory(mAnimationSource,
+						mAnimationTarget, mPointerPos.mPressure, duration));
 				mAnimate = true;
 				requestRender();
 			}
@@ -348,87 +1082,173 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	}
 
 	/**
-	 * Allow the last page to curl.
+	 * Replaces given pointer position with predicted one, see
+	 * setTouchPrediction. Prediction stays within visible pages.
 	 */
-	public void setAllowLastPageCurl(boolean allowLastPageCurl) {
-		mAllowLastPageCurl = allowLastPageCurl;
+	private void predictPointerPos(PointerPosition pointerPos, long frameTime) {
+		if (pointerPos.mGesture != mPredictorGesture) {
+			mPredictor.reset();
+			mPredictorGesture = pointerPos.mGesture;
+		}
+		mPredictor.addSample(pointerPos.mPos.x, pointerPos.mPos.y,
+				pointerPos.mEventTime, pointerPos.mReceiveTime);
+
+		mPredictorBounds.set(mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+		if (pointerPos.mViewMode == SHOW_TWO_PAGES) {
+			mPredictorBounds.left = mRenderer
+					.getPageRect(CurlRenderer.PAGE_LEFT).left;
+		}
+		mPredictor.predict(frameTime, mTouchPredictionTime,
+				mPredictorBounds, pointerPos.mPos);
 	}
 
 	/**
-	 * Sets background color - or OpenGL clear color to be more precise. Color
-	 * is a 32bit value consisting of 0xAARRGGBB and is extracted using
-	 * android.graphics.Color eventually.
+	 * Starts loading page with given priority unless it's cached already.
 	 */
-	@Override
-	public void setBackgroundColor(int color) {
-		mRenderer.setBackgroundColor(color);
-		requestRender();
+	private void prefetchPage(int index, int priority) {
+		if (!mPageCache.contains(index, mPageBitmapWidth, mPageBitmapHeight)) {
+			mPageLoader.load(index, priority);
+		}
 	}
 
 	/**
-	 * Sets mPageCurl curl position.
+	 * Starts loading pages within prefetch window around visible pages from
+	 * asynchronous page provider, nearest ones in reading direction first.
+	 * Loaded pages outside the window are dropped.
 	 */
-	private void setCurlPos(PointF curlPos, PointF curlDir, double radius) {
-
-		// First reposition curl so that page doesn't 'rip off' from book.
-		if (mCurlState == CURL_RIGHT
-				|| (mCurlState == CURL_LEFT && mViewMode == SHOW_ONE_PAGE)) {
-			RectF pageRect = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT);
-			if (curlPos.x >= pageRect.right) {
-				mPageCurl.reset();
-				requestRender();
-				return;
-			}
-			if (curlPos.x < pageRect.left) {
-				curlPos.x = pageRect.left;
-			}
-			if (curlDir.y != 0) {
-				float diffX = curlPos.x - pageRect.left;
-				float leftY = curlPos.y + (diffX * curlDir.x / curlDir.y);
-				if (curlDir.y < 0 && leftY < pageRect.top) {
-					curlDir.x = curlPos.y - pageRect.top;
-					curlDir.y = pageRect.left - curlPos.x;
-				} else if (curlDir.y > 0 && leftY > pageRect.bottom) {
-					curlDir.x = pageRect.bottom - curlPos.y;
-					curlDir.y = curlPos.x - pageRect.left;
-				}
-			}
-		} else if (mCurlState == CURL_LEFT) {
-			RectF pageRect = mRenderer.getPageRect(CurlRenderer.PAGE_LEFT);
-			if (curlPos.x <= pageRect.left) {
-				mPageCurl.reset();
-				requestRender();
-				return;
-			}
-			if (curlPos.x > pageRect.right) {
-				curlPos.x = pageRect.right;
+	private void prefetchPages() {
+		if (!(mPageProvider instanceof AsyncPageProvider) || mFlipPages != null) {
+			return;
+		}
+		updatePageEpoch();
+		// Page size is estimated from bitmap size until pages are loaded.
+		int pageBytes = mPageLoader.getPageBytes();
+		if (pageBytes <= 0) {
+			pageBytes = Math.max(mPageBitmapWidth * mPageBitmapHeight * 4, 1);
+		}
+		mPrefetchPolicy.update(mPrefetchAhead + mPrefetchBehind,
+				Math.min(mPrefetchMemoryBudget, mPageCache.getMaxBytes())
+						/ pageBytes, mPageLoader.getLoadTime());
+		int aheadCount = mPrefetchPolicy.getAhead();
+		int behindCount = mPrefetchPolicy.getBehind();
+
+		// Pages next to visible ones are kept always as curl needs them.
+		int behind = mCurrentIndex - 1 - behindCount;
+		int ahead = mCurrentIndex + aheadCount;
+		mPageLoader.retain(Math.min(behind, mCurrentIndex - 2),
+				Math.max(ahead, mCurrentIndex + 1));
+		// Pages meshes are waiting for go first, others are prioritized by
+		// the order they are requested.
+		for (CurlPageCache.Key key : mPagesPending.values()) {
+			if (!mPageCache.contains(key.mIndex, key.mWidth, key.mHeight)) {
+				mPageLoader.load(key.mIndex, key.mWidth, key.mHeight,
+						CurlPageLoader.PRIORITY_VISIBLE);
 			}
-			if (curlDir.y != 0) {
-				float diffX = curlPos.x - pageRect.right;
-				float rightY = curlPos.y + (diffX * curlDir.x / curlDir.y);
-				if (curlDir.y < 0 && rightY < pageRect.top) {
-					curlDir.x = pageRect.top - curlPos.y;
-					curlDir.y = curlPos.x - pageRect.right;
-				} else if (curlDir.y > 0 && rightY > pageRect.bottom) {
-					curlDir.x = curlPos.y - pageRect.bottom;
-					curlDir.y = pageRect.right - curlPos.x;
+		}
+		int pageCount = mPageProvider.getPageCount();
+		boolean forward = mPrefetchPolicy.isForward();
+		int priority = CurlPageLoader.PRIORITY_VISIBLE;
+		for (int i = 1; i <= Math.max(aheadCount, behindCount); ++i) {
+			for (int j = 0; j < 2; ++j) {
+				if ((j == 0) == forward) {
+					int index = mCurrentIndex + i;
+					if (index <= ahead && index < pageCount) {
+						prefetchPage(index, ++priority);
+					}
+				} else {
+					int index = mCurrentIndex - 1 - i;
+					if (index >= behind && index >= 0) {
+						prefetchPage(index, ++priority);
+					}
 				}
 			}
 		}
+	}
+
+	/**
+	 * Turns to previous page using standard page turn animation. Does nothing
+	 * if page is being curled already or there is no previous page.
+	 */
+	public void previousPage() {
+		turnPage(CURL_LEFT, mAnimationDurationTime);
+	}
+
+	/**
+	 * Hands pointer position over to rendering thread, replacing previous one
+	 * if it hasn't been used yet. History size is the number of historical
+	 * samples batched into touch event, they are counted as coalesced.
+	 */
+	private void queuePointerPos(PointerPosition pointerPos, int historySize) {
+		PointerPosition sample = new PointerPosition();
+		sample.setCurlState();
+		sample.mPos.set(pointerPos.mPos);
+		sample.mPressure = pointerPos.mPressure;
+		sample.mEventTime = pointerPos.mEventTime;
+		sample.mGesture = mGesture;
+		sample.mReceiveTime = mClock.nanoTime();
+		mTouchSamples += historySize + 1;
+		mPointerPending.set(sample);
+		requestRender();
+	}
+
+	/**
+	 * Allow the last page to curl.
+	 */
+	public void setAllowLastPageCurl(boolean allowLastPageCurl) {
+		mAllowLastPageCurl = allowLastPageCurl;
+	}
 
-		// Finally normalize direction vector and do rendering.
-		double dist = Math.sqrt(curlDir.x * curlDir.x + curlDir.y * curlDir.y);
-		if (dist != 0) {
-			curlDir.x /= dist;
-			curlDir.y /= dist;
-			mPageCurl.curl(curlPos, curlDir, radius);
-		} else {
-			mPageCurl.reset();
-		}
+	/**
+	 * Sets page animation duration in milliseconds. Default is 300.
+	 */
+	public void setAnimationDuration(long millis) {
+		mAnimationDurationTime = millis;
+	}
+
+	/**
+	 * Sets interpolator used for easing page animation. Null sets default
+	 * easing, CurlAnimation.SMOOTHSTEP.
+	 */
+	public void setAnimationInterpolator(final Interpolator interpolator) {
+		mRenderer.queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				mAnimation.setInterpolator(interpolator);
+			}
+		});
+	}
 
+	/**
+	 * Sets background color - or OpenGL clear color to be more precise. Color
+	 * is a 32bit value consisting of 0xAARRGGBB and is extracted using
+	 * android.graphics.Color eventually.
+	 */
+	@Override
+	public void setBackgroundColor(int color) {
+		mRenderer.setBackgroundColor(color);
 		requestRender();
 	}
 
+	/**
+	 * Sets size of Bitmap pool in bytes, 16MB by default. Pool is shared by
+	 * every CurlView and keeps released page Bitmaps for reuse until View is
+	 * paused or detached. Page Bitmaps may use up to page cache size (24MB by
+	 * default, prefetched pages are kept within it) per View plus pool size
+	 * in total, on top of pages being drawn.
+	 */
+	public void setBitmapPoolSize(int bytes) {
+		CurlBitmapPool.getDefault().setMaxBytes(Math.max(bytes, 0));
+	}
+
+	/**
+	 * Sets clock used for timing. Meant mostly for testing, by default
+	 * System.nanoTime is used. Animations and touch prediction take time from
+	 * this clock once per frame.
+	 */
+	public void setClock(Clock clock) {
+		mClock = clock;
+	}
+
 	/**
 	 * Set current page index. Page indices are zero based values presenting
 	 * page being shown on right side of the book. E.g if you set value to 4;
@@ -439,6 +1259,7 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	 * Current index is rounded to closest value divisible with 2.
 	 */
 	public void setCurrentIndex(int index) {
+		mFlipPages = null;
 		if (mPageProvider == null || index < 0) {
 			mCurrentIndex = 0;
 		} else {
@@ -453,6 +1274,42 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		requestRender();
 	}
 
+	/**
+	 * Sets curl split policy. Value can be either CURL_SPLITS_FIXED or
+	 * CURL_SPLITS_ADAPTIVE. In former case maximum split count is used for
+	 * every curl, in latter case split count is chosen based on curl arc length
+	 * on screen.
+	 */
+	public void setCurlSplitPolicy(int policy) {
+		switch (policy) {
+		case CURL_SPLITS_FIXED:
+		case CURL_SPLITS_ADAPTIVE:
+			mCurlSplitPolicy = policy;
+			updateCurlSplits();
+			break;
+		}
+	}
+
+	/**
+	 * Sets wanted length of one curl split in pixels. Used only with
+	 * CURL_SPLITS_ADAPTIVE policy.
+	 */
+	public void setCurlSplitLength(float pixels) {
+		mCurlSplitLength = pixels;
+		updateCurlSplits();
+	}
+
+	/**
+	 * If set to true, page is turned to the direction it is flung to on
+	 * release, if it's flung fast enough towards the direction it was
+	 * dragged to, with animation duration depending on release velocity.
+	 * Otherwise page always turns to the side pointer is released on. Enabled
+	 * by default.
+	 */
+	public void setEnableFling(boolean enableFling) {
+		mEnableFling = enableFling;
+	}
+
 	/**
 	 * If set to true, touch event pressure information is used to adjust curl
 	 * radius. The more you press, the flatter the curl becomes. This is
@@ -464,6 +1321,49 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mEnableTouchPressure = enableTouchPressure;
 	}
 
+	/**
+	 * Sets keyframe cache size in bytes. Cache holds meshes of recorded page
+	 * turn animations, least recently used ones are dropped once it's full.
+	 * Default size is one megabyte.
+	 */
+	public void setKeyframeCacheSize(final int bytes) {
+		mRenderer.queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				mKeyframeCache.setMaxBytes(bytes);
+			}
+		});
+	}
+
+	/**
+	 * Sets maximum curl split count. Page meshes are re-allocated for given
+	 * count so preferably this should be called before page provider is set.
+	 * If pages are being curled or animated, new count is taken into use once
+	 * they stop.
+	 */
+	public void setMaxCurlSplits(int maxCurlSplits) {
+		// There really is no use for 0 splits.
+		maxCurlSplits = Math.max(maxCurlSplits, 1);
+		if (mAnimate || mCurlState != CURL_NONE || mFlipPages != null) {
+			mMaxCurlSplitsPending = maxCurlSplits;
+			return;
+		}
+		mMaxCurlSplitsPending = 0;
+		if (maxCurlSplits == mMaxCurlSplits) {
+			return;
+		}
+		mRenderer.releaseCurlMesh(mPageLeft);
+		mRenderer.releaseCurlMesh(mPageRight);
+		mRenderer.releaseCurlMesh(mPageCurl);
+		// Released meshes give their textures back to texture pool, pages
+		// still loading are handed to new meshes instead.
+		mPagesPending.clear();
+		mMaxCurlSplits = maxCurlSplits;
+		initMeshes();
+		updatePages();
+		requestRender();
+	}
+
 	/**
 	 * Set margins (or padding). Note: margins are proportional. Meaning a value
 	 * of .1f will produce a 10% margin.
@@ -477,11 +1377,69 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	 */
 	public void setPageProvider(PageProvider pageProvider) {
 		mPageProvider = pageProvider;
+		mPageLoader
+				.setPageProvider(pageProvider instanceof AsyncPageProvider ? (AsyncPageProvider) pageProvider
+						: null);
+		mPagesPending.clear();
+		mPageCache.clear();
 		mCurrentIndex = 0;
+		mFlipPages = null;
 		updatePages();
 		requestRender();
 	}
 
+	/**
+	 * Sets page cache size in bytes. Rendered pages are kept in cache so that
+	 * turning back to them does not need page provider.
+	 */
+	public void setPageCacheSize(int bytes) {
+		mPageCache.setMaxBytes(Math.max(bytes, 0));
+	}
+
+	/**
+	 * Sets color of placeholder page shown while page is being loaded from
+	 * asynchronous page provider.
+	 */
+	public void setPlaceholderColor(int color) {
+		mPlaceholderColor = color;
+	}
+
+	/**
+	 * Sets memory budget in bytes for pages loaded in advance from
+	 * asynchronous page provider.
+	 */
+	public void setPrefetchMemoryBudget(int bytes) {
+		mPrefetchMemoryBudget = Math.max(bytes, 0);
+		prefetchPages();
+	}
+
+	/**
+	 * Sets number of pages loaded in advance from asynchronous page provider,
+	 * ahead of right page and behind left page, while pages are turned at
+	 * slow pace. Prefetch divides the total by reading direction, and
+	 * extends it in reading direction once pages are turned faster than they
+	 * load, within memory budget.
+	 */
+	public void setPrefetchWindow(int behind, int ahead) {
+		mPrefetchBehind = Math.max(behind, 0);
+		mPrefetchAhead = Math.max(ahead, 0);
+		prefetchPages();
+	}
+
+	/**
+	 * Sets render backend, either RENDER_BACKEND_GLES10 or
+	 * RENDER_BACKEND_GLES20. Backend is applied once GL context is created,
+	 * meaning this should be called before view is shown or change takes
+	 * effect after next onPause/onResume. If OpenGL ES 2.0 context can't be
+	 * created rendering falls back to OpenGL ES 1.0.
+	 */
+	public void setRenderBackend(int renderBackend) {
+		if (renderBackend == RENDER_BACKEND_GLES10
+				|| renderBackend == RENDER_BACKEND_GLES20) {
+			mRenderBackend = renderBackend;
+		}
+	}
+
 	/**
 	 * Setter for whether left side page is rendered. This is useful mostly for
 	 * situations where right (main) page is aligned to left side of screen and
@@ -491,6 +1449,45 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mRenderLeftPage = renderLeftPage;
 	}
 
+	/**
+	 * Enables or disables use of vertex buffer objects. If enabled and
+	 * supported by the device, static pages are uploaded to GL only once they
+	 * change and curled page is streamed into a buffer object. Otherwise
+	 * vertices are read from client memory on every frame. Enabled by default.
+	 */
+	public void setBufferObjects(final boolean bufferObjects) {
+		mBufferObjects = bufferObjects;
+		final CurlMesh[] meshes = { mPageLeft, mPageRight, mPageCurl };
+		mRenderer.queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				for (CurlMesh mesh : meshes) {
+					mesh.setBufferObjects(bufferObjects);
+				}
+			}
+		});
+		requestRender();
+	}
+
+	/**
+	 * Enables or disables single pass page rendering. If enabled and supported
+	 * by the device, page color and texture are drawn in one pass instead of
+	 * two. Enabled by default.
+	 */
+	public void setSinglePassRendering(final boolean singlePass) {
+		mSinglePassRendering = singlePass;
+		final CurlMesh[] meshes = { mPageLeft, mPageRight, mPageCurl };
+		mRenderer.queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				for (CurlMesh mesh : meshes) {
+					mesh.setSinglePassRendering(singlePass);
+				}
+			}
+		});
+		requestRender();
+	}
+
 	/**
 	 * Sets SizeChangedObserver for this View. Call back method is called from
 	 * this View's onSizeChanged method.
@@ -499,6 +1496,43 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mSizeChangedObserver = observer;
 	}
 
+	/**
+	 * Enables or disables touch prediction. Once enabled, page follows
+	 * position pointer is expected to be at once frame is shown instead of
+	 * latest touch position, based on pointer velocity and acceleration.
+	 */
+	public void setTouchPrediction(boolean touchPrediction) {
+		mTouchPrediction = touchPrediction;
+	}
+
+	/**
+	 * Sets how many milliseconds ahead of current time pointer position is
+	 * predicted. Default is 16 milliseconds, about one frame.
+	 */
+	public void setTouchPredictionTime(float millis) {
+		mTouchPredictionTime = millis;
+	}
+
+	/**
+	 * Sets vertex format used by page meshes. Value can be either
+	 * CurlMesh.VERTEX_FORMAT_SEPARATE or CurlMesh.VERTEX_FORMAT_INTERLEAVED.
+	 * Former stores each vertex attribute into a separate float buffer, latter
+	 * stores them all into one buffer using byte sized color components.
+	 */
+	public void setVertexFormat(final int vertexFormat) {
+		mVertexFormat = vertexFormat;
+		final CurlMesh[] meshes = { mPageLeft, mPageRight, mPageCurl };
+		mRenderer.queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				for (CurlMesh mesh : meshes) {
+					mesh.setVertexFormat(vertexFormat);
+				}
+			}
+		});
+		requestRender();
+	}
+
 	/**
 	 * Sets view mode. Value can be either SHOW_ONE_PAGE or SHOW_TWO_PAGES. In
 	 * former case right page is made size of display, and in latter case two
@@ -508,12 +1542,12 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		switch (viewMode) {
 		case SHOW_ONE_PAGE:
 			mViewMode = viewMode;
-			mPageLeft.setFlipTexture(true);
+			mRenderer.setFlipTexture(mPageLeft, true);
 			mRenderer.setViewMode(CurlRenderer.SHOW_ONE_PAGE);
 			break;
 		case SHOW_TWO_PAGES:
 			mViewMode = viewMode;
-			mPageLeft.setFlipTexture(false);
+			mRenderer.setFlipTexture(mPageLeft, false);
 			mRenderer.setViewMode(CurlRenderer.SHOW_TWO_PAGES);
 			break;
 		}
@@ -541,27 +1575,28 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 			mPageCurl = curl;
 
 			if (mCurrentIndex > 0) {
-				mPageLeft.setFlipTexture(true);
-				mPageLeft
-						.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
-				mPageLeft.reset();
+				mRenderer.setFlipTexture(mPageLeft, true);
+				mRenderer.setRect(mPageLeft,
+						mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
+				mRenderer.reset(mPageLeft);
 				if (mRenderLeftPage) {
 					mRenderer.addCurlMesh(mPageLeft);
 				}
 			}
 			if (mCurrentIndex < mPageProvider.getPageCount() - 1) {
-				updatePage(mPageRight.getTexturePage(), mCurrentIndex + 1);
-				mPageRight.setRect(mRenderer
-						.getPageRect(CurlRenderer.PAGE_RIGHT));
-				mPageRight.setFlipTexture(false);
-				mPageRight.reset();
+				updatePage(mPageRight, mCurrentIndex + 1);
+				mRenderer.setRect(mPageRight,
+						mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+				mRenderer.setFlipTexture(mPageRight, false);
+				mRenderer.reset(mPageRight);
 				mRenderer.addCurlMesh(mPageRight);
 			}
 
 			// Add curled page to renderer.
-			mPageCurl.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
-			mPageCurl.setFlipTexture(false);
-			mPageCurl.reset();
+			mRenderer.setRect(mPageCurl,
+					mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+			mRenderer.setFlipTexture(mPageCurl, false);
+			mRenderer.reset(mPageCurl);
 			mRenderer.addCurlMesh(mPageCurl);
 
 			mCurlState = CURL_RIGHT;
@@ -583,11 +1618,11 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 			mPageCurl = curl;
 
 			if (mCurrentIndex > 1) {
-				updatePage(mPageLeft.getTexturePage(), mCurrentIndex - 2);
-				mPageLeft.setFlipTexture(true);
-				mPageLeft
-						.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
-				mPageLeft.reset();
+				updatePage(mPageLeft, mCurrentIndex - 2);
+				mRenderer.setFlipTexture(mPageLeft, true);
+				mRenderer.setRect(mPageLeft,
+						mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
+				mRenderer.reset(mPageLeft);
 				if (mRenderLeftPage) {
 					mRenderer.addCurlMesh(mPageLeft);
 				}
@@ -595,25 +1630,25 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 
 			// If there is something to show on right page add it to renderer.
 			if (mCurrentIndex < mPageProvider.getPageCount()) {
-				mPageRight.setFlipTexture(false);
-				mPageRight.setRect(mRenderer
-						.getPageRect(CurlRenderer.PAGE_RIGHT));
-				mPageRight.reset();
+				mRenderer.setFlipTexture(mPageRight, false);
+				mRenderer.setRect(mPageRight,
+						mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+				mRenderer.reset(mPageRight);
 				mRenderer.addCurlMesh(mPageRight);
 			}
 
 			// How dragging previous page happens depends on view mode.
 			if (mViewMode == SHOW_ONE_PAGE
 					|| (mCurlState == CURL_LEFT && mViewMode == SHOW_TWO_PAGES)) {
-				mPageCurl.setRect(mRenderer
-						.getPageRect(CurlRenderer.PAGE_RIGHT));
-				mPageCurl.setFlipTexture(false);
+				mRenderer.setRect(mPageCurl,
+						mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+				mRenderer.setFlipTexture(mPageCurl, false);
 			} else {
-				mPageCurl
-						.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
-				mPageCurl.setFlipTexture(true);
+				mRenderer.setRect(mPageCurl,
+						mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
+				mRenderer.setFlipTexture(mPageCurl, true);
 			}
-			mPageCurl.reset();
+			mRenderer.reset(mPageCurl);
 			mRenderer.addCurlMesh(mPageCurl);
 
 			mCurlState = CURL_LEFT;
@@ -621,92 +1656,160 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		}
 
 		}
+
+		// Curl tells reading direction before page has been turned.
+		mPrefetchPolicy.onCurl(page == CURL_RIGHT ? 1 : -1);
+		prefetchPages();
 	}
 
 	/**
-	 * Updates curl position.
+	 * Starts standard page turn animation for given page, CURL_RIGHT turning
+	 * to next page and CURL_LEFT to previous one. Page is turned as if it was
+	 * dragged from the middle of its outer edge to the other side, which
+	 * makes every turn of same duration follow the same trajectory and their
+	 * meshes cacheable.
 	 */
-	private void updateCurlPos(PointerPosition pointerPos) {
-
-		// Default curl radius.
-		double radius = mRenderer.getPageRect(CURL_RIGHT).width() / 3;
-		// TODO: This is not an optimal solution. Based on feedback received so
-		// far; pressure is not very accurate, it may be better not to map
-		// coefficient to range [0f, 1f] but something like [.2f, 1f] instead.
-		// Leaving it as is until get my hands on a real device. On emulator
-		// this doesn't work anyway.
-		radius *= Math.max(1f - pointerPos.mPressure, 0f);
-		// NOTE: Here we set pointerPos to mCurlPos. It might be a bit confusing
-		// later to see e.g "mCurlPos.x - mDragStartPos.x" used. But it's
-		// actually pointerPos we are doing calculations against. Why? Simply to
-		// optimize code a bit with the cost of making it unreadable. Otherwise
-		// we had to this in both of the next if-else branches.
-		mCurlPos.set(pointerPos.mPos);
-
-		// If curl happens on right page, or on left page on two page mode,
-		// we'll calculate curl position from pointerPos.
-		if (mCurlState == CURL_RIGHT
-				|| (mCurlState == CURL_LEFT && mViewMode == SHOW_TWO_PAGES)) {
-
-			mCurlDir.x = mCurlPos.x - mDragStartPos.x;
-			mCurlDir.y = mCurlPos.y - mDragStartPos.y;
-			float dist = (float) Math.sqrt(mCurlDir.x * mCurlDir.x + mCurlDir.y
-					* mCurlDir.y);
+	private void turnPage(int page, long duration) {
+		if (mAnimate || mPageProvider == null || mCurlState != CURL_NONE) {
+			return;
+		}
+		RectF rightRect = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT);
+		RectF leftRect = mRenderer.getPageRect(CurlRenderer.PAGE_LEFT);
+		mDragStartPos.y = (rightRect.top + rightRect.bottom) / 2;
+		mAnimationTarget.y = mDragStartPos.y;
 
-			// Adjust curl radius so that if page is dragged far enough on
-			// opposite side, radius gets closer to zero.
-			float pageWidth = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT)
-					.width();
-			double curlLen = radius * Math.PI;
-			if (dist > (pageWidth * 2) - curlLen) {
-				curlLen = Math.max((pageWidth * 2) - dist, 0f);
-				radius = curlLen / Math.PI;
+		if (page == CURL_RIGHT) {
+			int pageCount = mPageProvider.getPageCount();
+			if (mCurrentIndex >= pageCount
+					|| (!mAllowLastPageCurl && mCurrentIndex >= pageCount - 1)) {
+				return;
 			}
+			mDragStartPos.x = rightRect.right;
+			mAnimationTarget.x = leftRect.left;
+			mAnimationTargetEvent = SET_CURL_TO_LEFT;
+		} else {
+			if (mCurrentIndex <= 0) {
+				return;
+			}
+			mDragStartPos.x = mViewMode == SHOW_TWO_PAGES ? leftRect.left
+					: rightRect.left;
+			mAnimationTarget.x = rightRect.right;
+			mAnimationTargetEvent = SET_CURL_TO_RIGHT;
+		}
+		mAnimationSource.set(mDragStartPos);
+		startCurl(page);
+
+		float pressure = 0.8f;
+		Trajectory trajectory = getTrajectory(mAnimationSource,
+				mAnimationTarget, pressure, duration);
+		trajectory.mKeyframeAnimation = new int[] { page, mViewMode,
+				trajectory.getKeyframeCount(),
+				Float.floatToIntBits(mAnimationSource.x),
+				Float.floatToIntBits(mAnimationSource.y),
+				Float.floatToIntBits(mAnimationTarget.x),
+				Float.floatToIntBits(mAnimationTarget.y),
+				Float.floatToIntBits(pressure) };
+		mAnimationPending.set(trajectory);
+		mAnimate = true;
+		requestRender();
+	}
 
-			// Actual curl position calculation.
-			if (dist >= curlLen) {
-				double translate = (dist - curlLen) / 2;
-				if (mViewMode == SHOW_TWO_PAGES) {
-					mCurlPos.x -= mCurlDir.x * translate / dist;
-				} else {
-					float pageLeftX = mRenderer
-							.getPageRect(CurlRenderer.PAGE_RIGHT).left;
-					radius = Math.max(Math.min(mCurlPos.x - pageLeftX, radius),
-							0f);
+	/**
+	 * Updates curl split policy to page meshes.
+	 */
+	private void updateCurlSplits() {
+		final boolean adaptive = mCurlSplitPolicy == CURL_SPLITS_ADAPTIVE;
+		final float splitLength = mCurlSplitLength;
+		final float pixelScale = mPixelScale;
+		final CurlMesh[] meshes = { mPageLeft, mPageRight, mPageCurl };
+		mRenderer.queueRunnable(new Runnable() {
+			@Override
+			public void run() {
+				for (CurlMesh mesh : meshes) {
+					mesh.setAdaptiveCurlSplits(adaptive, splitLength);
+					mesh.setPixelScale(pixelScale);
 				}
-				mCurlPos.y -= mCurlDir.y * translate / dist;
-			} else {
-				double angle = Math.PI * Math.sqrt(dist / curlLen);
-				double translate = radius * Math.sin(angle);
-				mCurlPos.x += mCurlDir.x * translate / dist;
-				mCurlPos.y += mCurlDir.y * translate / dist;
 			}
-		}
-		// Otherwise we'll let curl follow pointer position.
-		else if (mCurlState == CURL_LEFT) {
+		});
+	}
 
-			// Adjust radius regarding how close to page edge we are.
-			float pageLeftX = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT).left;
-			radius = Math.max(Math.min(mCurlPos.x - pageLeftX, radius), 0f);
+	/**
+	 * Updates curl position.
+	 */
+	private void updateCurlPos(PointerPosition pointerPos) {
+		double radius = getCurl(pointerPos, mCurlPos, mCurlDir);
+		if (radius >= 0) {
+			mRenderer.curl(pointerPos.mMesh, mCurlPos, mCurlDir, radius);
+		} else {
+			mRenderer.reset(pointerPos.mMesh);
+		}
+		requestRender();
+	}
 
-			float pageRightX = mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT).right;
-			mCurlPos.x -= Math.min(pageRightX - mCurlPos.x, radius);
-			mCurlDir.x = mCurlPos.x + mDragStartPos.x;
-			mCurlDir.y = mCurlPos.y - mDragStartPos.y;
+	/**
+	 * Updates texture page of given mesh via PageProvider for page located at
+	 * index. Page is taken from page cache or filled here, and shared with
+	 * mesh on rendering thread.
+	 */
+	private void updatePage(CurlMesh mesh, int index) {
+		mPagesPending.remove(mesh);
+		// Pages riffled through are only seen for a moment and are requested
+		// in lower resolution.
+		boolean riffle = mFlipPages != null && mFlipPages.length > 1;
+		int width = mPageBitmapWidth;
+		int height = mPageBitmapHeight;
+		if (riffle) {
+			width = Math.max(width / FLIP_TEXTURE_SCALE, 1);
+			height = Math.max(height / FLIP_TEXTURE_SCALE, 1);
+		}
+		// Riffled pages don't count as reading, prefetch statistics and
+		// epoch are left for pages in full size.
+		boolean async = mPageProvider instanceof AsyncPageProvider;
+		if (async && !riffle) {
+			updatePageEpoch();
 		}
 
-		setCurlPos(mCurlPos, mCurlDir, radius);
+		CurlPage cached = mPageCache.getPage(index, width, height);
+		if (cached == null && async) {
+			// Placeholder is shown until page has been loaded.
+			if (!riffle) {
+				++mPrefetchMisses;
+			}
+			mPageLoader.load(index, width, height,
+					CurlPageLoader.PRIORITY_VISIBLE);
+			mPagesPending.put(mesh, new CurlPageCache.Key(index, width,
+					height));
+			CurlPage page = new CurlPage();
+			page.setColor(mPlaceholderColor, CurlPage.SIDE_BOTH);
+			page.setTexture(null, CurlPage.SIDE_BOTH);
+			mRenderer.setPage(mesh, page);
+			return;
+		} else if (cached == null) {
+			// Ask page provider to fill it up with bitmaps and colors.
+			cached = new CurlPage();
+			cached.setTarget(width, height, !mNpotSupported);
+			mPageProvider.updatePage(cached, width, height, index);
+			mPageCache.putPage(index, width, height, cached);
+		} else if (async && !riffle) {
+			++mPrefetchHits;
+		}
+		CurlPage page = new CurlPage();
+		page.share(cached);
+		mRenderer.setPage(mesh, page);
 	}
 
 	/**
-	 * Updates given CurlPage via PageProvider for page located at index.
+	 * Starts new page load epoch if current index has changed since previous
+	 * one, which lets page loader tell stale jobs apart. Prefetch policy
+	 * learns page turns from index changes too.
 	 */
-	private void updatePage(CurlPage page, int index) {
-		// First reset page to initial state.
-		page.reset();
-		// Ask page provider to fill it up with bitmaps and colors.
-		mPageProvider.updatePage(page, mPageBitmapWidth, mPageBitmapHeight,
-				index);
+	private void updatePageEpoch() {
+		if (mCurrentIndex != mPrefetchIndex) {
+			mPrefetchPolicy.onIndexChanged(mCurrentIndex - mPrefetchIndex,
+					mClock.nanoTime());
+			mPrefetchIndex = mCurrentIndex;
+			mPageLoader.setEpoch(++mPageEpoch);
+		}
 	}
 
 	/**
@@ -735,37 +1838,151 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		}
 
 		if (rightIdx >= 0 && rightIdx < mPageProvider.getPageCount()) {
-			updatePage(mPageRight.getTexturePage(), rightIdx);
-			mPageRight.setFlipTexture(false);
-			mPageRight.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
-			mPageRight.reset();
+			updatePage(mPageRight, rightIdx);
+			mRenderer.setFlipTexture(mPageRight, false);
+			mRenderer.setRect(mPageRight,
+					mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
+			mRenderer.reset(mPageRight);
 			mRenderer.addCurlMesh(mPageRight);
 		}
 		if (leftIdx >= 0 && leftIdx < mPageProvider.getPageCount()) {
-			updatePage(mPageLeft.getTexturePage(), leftIdx);
-			mPageLeft.setFlipTexture(true);
-			mPageLeft.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
-			mPageLeft.reset();
+			updatePage(mPageLeft, leftIdx);
+			mRenderer.setFlipTexture(mPageLeft, true);
+			mRenderer.setRect(mPageLeft,
+					mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
+			mRenderer.reset(mPageLeft);
 			if (mRenderLeftPage) {
 				mRenderer.addCurlMesh(mPageLeft);
 			}
 		}
 		if (curlIdx >= 0 && curlIdx < mPageProvider.getPageCount()) {
-			updatePage(mPageCurl.getTexturePage(), curlIdx);
+			updatePage(mPageCurl, curlIdx);
 
 			if (mCurlState == CURL_RIGHT) {
-				mPageCurl.setFlipTexture(true);
-				mPageCurl.setRect(mRenderer
-						.getPageRect(CurlRenderer.PAGE_RIGHT));
+				mRenderer.setFlipTexture(mPageCurl, true);
+				mRenderer.setRect(mPageCurl,
+						mRenderer.getPageRect(CurlRenderer.PAGE_RIGHT));
 			} else {
-				mPageCurl.setFlipTexture(false);
-				mPageCurl
-						.setRect(mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
+				mRenderer.setFlipTexture(mPageCurl, false);
+				mRenderer.setRect(mPageCurl,
+						mRenderer.getPageRect(CurlRenderer.PAGE_LEFT));
 			}
 
-			mPageCurl.reset();
+			mRenderer.reset(mPageCurl);
 			mRenderer.addCurlMesh(mPageCurl);
 		}
+
+		prefetchPages();
+	}
+
+	/**
+	 * EGL config chooser preferring RGB565 with depth buffer, same as
+	 * GLSurfaceView does by default. Config has to support OpenGL ES 2.0 too if
+	 * it's the render backend.
+	 */
+	private class ConfigChooser implements GLSurfaceView.EGLConfigChooser {
+
+		private static final int EGL_OPENGL_ES_BIT = 0x01;
+		private static final int EGL_OPENGL_ES2_BIT = 0x04;
+
+		@Override
+		public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+			EGLConfig config = null;
+			if (mRenderBackend == RENDER_BACKEND_GLES20) {
+				config = chooseConfig(egl, display, EGL_OPENGL_ES_BIT
+						| EGL_OPENGL_ES2_BIT);
+			}
+			if (config == null) {
+				config = chooseConfig(egl, display, EGL_OPENGL_ES_BIT);
+			}
+			if (config == null) {
+				throw new IllegalArgumentException("No configs match configSpec");
+			}
+			return config;
+		}
+
+		/**
+		 * Returns config for given renderable type or null if there is none.
+		 */
+		private EGLConfig chooseConfig(EGL10 egl, EGLDisplay display,
+				int renderableType) {
+			int[] configSpec = { EGL10.EGL_RED_SIZE, 5, EGL10.EGL_GREEN_SIZE,
+					6, EGL10.EGL_BLUE_SIZE, 5, EGL10.EGL_DEPTH_SIZE, 16,
+					EGL10.EGL_RENDERABLE_TYPE, renderableType, EGL10.EGL_NONE };
+			int[] numConfigs = new int[1];
+			if (!egl.eglChooseConfig(display, configSpec, null, 0, numConfigs)
+					|| numConfigs[0] <= 0) {
+				return null;
+			}
+			EGLConfig[] configs = new EGLConfig[numConfigs[0]];
+			egl.eglChooseConfig(display, configSpec, configs, configs.length,
+					numConfigs);
+			// Prefer exact color component sizes.
+			int[] value = new int[1];
+			for (EGLConfig config : configs) {
+				int r = egl.eglGetConfigAttrib(display, config,
+						EGL10.EGL_RED_SIZE, value) ? value[0] : 0;
+				int g = egl.eglGetConfigAttrib(display, config,
+						EGL10.EGL_GREEN_SIZE, value) ? value[0] : 0;
+				int b = egl.eglGetConfigAttrib(display, config,
+						EGL10.EGL_BLUE_SIZE, value) ? value[0] : 0;
+				if (r == 5 && g == 6 && b == 5) {
+					return config;
+				}
+			}
+			return configs[0];
+		}
+	}
+
+	/**
+	 * EGL context factory creating OpenGL ES 2.0 context if it's the render
+	 * backend and OpenGL ES 1.0 context otherwise, or if creating 2.0 context
+	 * fails.
+	 */
+	private class ContextFactory implements GLSurfaceView.EGLContextFactory {
+
+		private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+		@Override
+		public EGLContext createContext(EGL10 egl, EGLDisplay display,
+				EGLConfig config) {
+			if (mRenderBackend == RENDER_BACKEND_GLES20) {
+				int[] attribList = { EGL_CONTEXT_CLIENT_VERSION, 2,
+						EGL10.EGL_NONE };
+				EGLContext context = egl.eglCreateContext(display, config,
+						EGL10.EGL_NO_CONTEXT, attribList);
+				if (context != null && context != EGL10.EGL_NO_CONTEXT) {
+					return context;
+				}
+			}
+			return egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
+					null);
+		}
+
+		@Override
+		public void destroyContext(EGL10 egl, EGLDisplay display,
+				EGLContext context) {
+			egl.eglDestroyContext(display, context);
+		}
+	}
+
+	/**
+	 * Page provider rendering pages on background threads. Pages are loaded
+	 * in advance within prefetch window and updatePage is called from worker
+	 * threads, possibly several at once, so implementation has to be thread
+	 * safe. Placeholder page is shown in case page is needed before it has
+	 * been loaded. Low resolution pages riffled through during flipToPage
+	 * are loaded the same way.
+	 */
+	public interface AsyncPageProvider extends PageProvider {
+
+		/**
+		 * Called from worker thread once page is needed. Page is no longer
+		 * needed once token is cancelled, which happens when pages are
+		 * flipped past it, and implementation may return early then.
+		 */
+		public void updatePage(CurlPage page, int width, int height,
+				int index, CurlPageLoader.Token token);
 	}
 
 	/**
@@ -784,7 +2001,10 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		 * pixels telling the size it will be drawn on screen and following them
 		 * ensures that aspect ratio remains. But it's possible to return bitmap
 		 * of any size though. You should use provided CurlPage for storing page
-		 * information for requested page number.<br/>
+		 * information for requested page number. Drawing page through
+		 * CurlPage.getCanvas saves copying it into texture sized bitmap
+		 * later on. Bitmaps given to CurlPage.setTexture can be borrowed from
+		 * CurlPage.getBitmapPool.<br/>
 		 * <br/>
 		 * Index is a number between 0 and getBitmapCount() - 1.
 		 */
@@ -792,11 +2012,130 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	}
 
 	/**
-	 * Simple holder for pointer position.
+	 * Simple holder for pointer position, together with state needed for
+	 * calculating curl for it.
 	 */
 	private class PointerPosition {
+		int mCurlState;
+		final PointF mDragStartPos = new PointF();
+		long mEventTime;
+		int mGesture;
+		CurlMesh mMesh;
 		PointF mPos = new PointF();
 		float mPressure;
+		long mReceiveTime;
+		int mViewMode;
+
+		/**
+		 * Copies current curl state, drag start position, curled mesh and
+		 * view mode. Called on UI thread.
+		 */
+		void setCurlState() {
+			mCurlState = CurlView.this.mCurlState;
+			mDragStartPos.set(CurlView.this.mDragStartPos);
+			mMesh = mPageCurl;
+			mViewMode = CurlView.this.mViewMode;
+		}
+	}
+
+	/**
+	 * Time source used by CurlView.
+	 */
+	public interface Clock {
+
+		/**
+		 * Returns monotonic time in nanoseconds.
+		 */
+		public long nanoTime();
+	}
+
+	/**
+	 * Precalculated page animation. Holds curl position, direction and
+	 * radius for evenly spaced animation progress values, negative radius
+	 * meaning page is drawn flat.
+	 */
+	private class Trajectory {
+		final float[] mCurlDirX;
+		final float[] mCurlDirY;
+		final float[] mCurlPosX;
+		final float[] mCurlPosY;
+		long mDuration;
+		// Animation key for keyframe cache, null if not cached.
+		int[] mKeyframeAnimation;
+		// Mesh animated.
+		CurlMesh mMesh;
+		final double[] mRadius;
+
+		Trajectory(int steps) {
+			mCurlDirX = new float[steps];
+			mCurlDirY = new float[steps];
+			mCurlPosX = new float[steps];
+			mCurlPosY = new float[steps];
+			mRadius = new double[steps];
+		}
+
+		/**
+		 * Returns curl for given entry. Returns curl radius.
+		 */
+		double get(int i, PointF curlPos, PointF curlDir) {
+			curlPos.set(mCurlPosX[i], mCurlPosY[i]);
+			curlDir.set(mCurlDirX[i], mCurlDirY[i]);
+			return mRadius[i];
+		}
+
+		/**
+		 * Returns entry closest to given progress.
+		 */
+		int getKeyframe(float t) {
+			return Math.round(Math.max(0f, Math.min(1f, t))
+					* (mRadius.length - 1));
+		}
+
+		/**
+		 * Returns number of entries.
+		 */
+		int getKeyframeCount() {
+			return mRadius.length;
+		}
+
+		/**
+		 * Looks up curl for given progress, interpolating between two
+		 * closest entries. Returns curl radius.
+		 */
+		double get(float t, PointF curlPos, PointF curlDir) {
+			int last = mRadius.length - 1;
+			float pos = Math.max(0f, Math.min(1f, t)) * last;
+			int i = Math.min((int) pos, last - 1);
+			float f = pos - i;
+			// Flat and curled page can't be mixed, use closer one instead.
+			if (mRadius[i] < 0 || mRadius[i + 1] < 0) {
+				if (f >= .5f) {
+					++i;
+				}
+				f = 0f;
+			}
+			int j = Math.min(i + 1, last);
+			curlPos.x = mCurlPosX[i] + (mCurlPosX[j] - mCurlPosX[i]) * f;
+			curlPos.y = mCurlPosY[i] + (mCurlPosY[j] - mCurlPosY[i]) * f;
+			curlDir.x = mCurlDirX[i] + (mCurlDirX[j] - mCurlDirX[i]) * f;
+			curlDir.y = mCurlDirY[i] + (mCurlDirY[j] - mCurlDirY[i]) * f;
+			double dist = Math.sqrt(curlDir.x * curlDir.x + curlDir.y
+					* curlDir.y);
+			if (dist == 0) {
+				return -1;
+			}
+			curlDir.x /= dist;
+			curlDir.y /= dist;
+			return mRadius[i] + (mRadius[j] - mRadius[i]) * f;
+		}
+
+		void set(int i, PointF curlPos, PointF curlDir, double radius) {
+			mCurlPosX[i] = curlPos.x;
+			mCurlPosY[i] = curlPos.y;
+			mCurlDirX[i] = curlDir.x;
+			mCurlDirY[i] = curlDir.y;
+			mRadius[i] = radius;
+		}
 	}
 
 	/**